@@ -21,6 +21,7 @@ class Video extends Component {
   constructor(props, context) {
     super(props, context);
     this.seek = this.seek.bind(this);
+    this.getNetworkStats = this.getNetworkStats.bind(this);
     this._assignRoot = this._assignRoot.bind(this);
     this._onLoadStart = this._onLoadStart.bind(this);
     this._onLoad = this._onLoad.bind(this);
@@ -40,6 +41,13 @@ class Video extends Component {
     this.setNativeProps({ seek: time });
   }
 
+  getNetworkStats(callback) {
+    if (NativeModules.RCTVideoModule) {
+      NativeModules.RCTVideoModule.getPlayerNetworkStats(React.findNodeHandle(this._root),
+        callback);
+    }
+  }
+
   _assignRoot(component) {
     this._root = component;
   }
@@ -146,6 +154,67 @@ class Video extends Component {
   }
 }
 
+// Hint that uri will be played soon so the connection can be set up early (Android only).
+Video.prewarm = (uri) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.prewarm(uri);
+  }
+};
+
+Video.preload = (uri, options) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.preload(uri, options || {});
+  }
+};
+
+Video.download = (id, uri, options) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.download(id, uri, options || {});
+  }
+};
+
+Video.pauseDownload = (id) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.pauseDownload(id);
+  }
+};
+
+Video.resumeDownload = (id) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.resumeDownload(id);
+  }
+};
+
+Video.removeDownload = (id) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.removeDownload(id);
+  }
+};
+
+Video.setDownloadBandwidthLimit = (bytesPerSecond) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.setDownloadBandwidthLimit(bytesPerSecond);
+  }
+};
+
+Video.getDownloads = (callback) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.getDownloads(callback);
+  }
+};
+
+Video.getNetworkStats = (callback) => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.getNetworkStats(callback);
+  }
+};
+
+Video.resetNetworkStats = () => {
+  if (NativeModules.RCTVideoModule) {
+    NativeModules.RCTVideoModule.resetNetworkStats();
+  }
+};
+
 Video.propTypes = {
   /* Native only */
   src: PropTypes.object,
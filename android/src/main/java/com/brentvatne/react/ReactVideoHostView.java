@@ -5,10 +5,12 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
+import com.brentvatne.react.exoplayer.DataSourceStats;
 import com.brentvatne.react.exoplayer.ExoPlayerView;
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.xealth.mediacontroller.callback.Callback;
@@ -33,6 +35,9 @@ public class ReactVideoHostView extends FrameLayout {
 
     private static final boolean enableAutoOverlay = true;
 
+    /** Network stats of the attached views, by view id (react tag). Guarded by itself. */
+    private static final SparseArray<DataSourceStats> statsById = new SparseArray<>();
+
     ReactVideoModelState modelState = new ReactVideoModelState(this);
 
     public ReactVideoHostView(ThemedReactContext themedReactContext, OverlayView overlayView) {
@@ -80,6 +85,9 @@ public class ReactVideoHostView extends FrameLayout {
             ensureOverlayView();
         }
         videoViewContainer.doInit();
+        synchronized (statsById) {
+            statsById.put(getId(), getVideoView().getDataSourceStats());
+        }
     }
 
     @Override
@@ -91,6 +99,16 @@ public class ReactVideoHostView extends FrameLayout {
             goEmbed();
         }
         videoViewContainer.doCleanup();
+        synchronized (statsById) {
+            statsById.remove(getId());
+        }
+    }
+
+    /** Network stats of the attached view with id, or null. May be called on any thread. */
+    public static DataSourceStats getDataSourceStats(int id) {
+        synchronized (statsById) {
+            return statsById.get(id);
+        }
     }
 
     private LayoutParams newMatchParentFrameLayoutParams() {
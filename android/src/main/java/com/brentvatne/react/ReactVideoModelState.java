@@ -3,6 +3,7 @@ package com.brentvatne.react;
 
 import android.util.Log;
 
+import com.brentvatne.react.exoplayer.ConnectionPrewarmer;
 import com.facebook.react.bridge.ReadableMap;
 import com.yqritc.scalablevideoview.ScalableType;
 
@@ -60,6 +61,10 @@ public class ReactVideoModelState {
         contentIsNetwork = src.getBoolean(PROP_SRC_IS_NETWORK);
         contentIsAsset = src.getBoolean(PROP_SRC_IS_ASSET);
         Log.d(LOGTAG, "setSrc(): " + contentUri);
+        if (contentIsNetwork) {
+            // Overlap DNS and connection setup with view attach and renderer building
+            ConnectionPrewarmer.prewarm(contentUri);
+        }
         hostView.getVideoView().prepareVideo(this);
     }
 
@@ -0,0 +1,183 @@
+package com.brentvatne.react;
+
+import com.brentvatne.react.exoplayer.ConnectionPrewarmer;
+import com.brentvatne.react.exoplayer.DataSourceStats;
+import com.brentvatne.react.exoplayer.Download;
+import com.brentvatne.react.exoplayer.DownloadManager;
+import com.brentvatne.react.exoplayer.Histogram;
+import com.brentvatne.react.exoplayer.MediaCache;
+import com.brentvatne.react.exoplayer.Preloader;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Methods exposed to JS that are not tied to a particular video view
+ */
+public class ReactVideoModule extends ReactContextBaseJavaModule {
+
+    public static final String REACT_CLASS = "RCTVideoModule";
+
+    /** Indexed by the Download.STATE_* constants */
+    private static final String[] DOWNLOAD_STATES =
+            {"queued", "downloading", "paused", "completed", "failed"};
+
+    public ReactVideoModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+        MediaCache.warmUp(reactContext);
+        // Continues downloads interrupted by the previous process, if any
+        DownloadManager.getIfExists(reactContext);
+    }
+
+    @Override
+    public String getName() {
+        return REACT_CLASS;
+    }
+
+    /** Hint that uri is likely to be played soon so the connection can be set up in advance */
+    @ReactMethod
+    public void prewarm(String uri) {
+        ConnectionPrewarmer.prewarm(uri);
+    }
+
+    /**
+     * Fetches the start of uri into the media cache in the background.
+     *
+     * @param options Optional {@code bytes}, {@code durationMs}, {@code type} (file extension
+     *                override) and {@code lowest} (preload the lowest bitrate HLS variant).
+     */
+    @ReactMethod
+    public void preload(String uri, ReadableMap options) {
+        long bytes = Preloader.DEFAULT_MAX_BYTES;
+        long durationMs = Preloader.DEFAULT_DURATION_MS;
+        String type = null;
+        boolean lowest = false;
+        if (options != null) {
+            if (options.hasKey("bytes")) {
+                bytes = (long) options.getDouble("bytes");
+            }
+            if (options.hasKey("durationMs")) {
+                durationMs = (long) options.getDouble("durationMs");
+            }
+            if (options.hasKey("type")) {
+                type = options.getString("type");
+            }
+            if (options.hasKey("lowest")) {
+                lowest = options.getBoolean("lowest");
+            }
+        }
+        Preloader.preload(getReactApplicationContext(), uri, type, bytes, durationMs, lowest);
+    }
+
+    /**
+     * Starts or resumes downloading uri for offline playback.
+     *
+     * @param options Optional {@code type} (file extension override) and {@code maxBitrate}
+     *                (highest video bitrate to download, the best by default).
+     */
+    @ReactMethod
+    public void download(String id, String uri, ReadableMap options) {
+        String type = null;
+        int maxBitrate = Integer.MAX_VALUE;
+        if (options != null) {
+            if (options.hasKey("type")) {
+                type = options.getString("type");
+            }
+            if (options.hasKey("maxBitrate")) {
+                maxBitrate = options.getInt("maxBitrate");
+            }
+        }
+        getDownloadManager().start(id, uri, type, maxBitrate);
+    }
+
+    @ReactMethod
+    public void pauseDownload(String id) {
+        getDownloadManager().pause(id);
+    }
+
+    @ReactMethod
+    public void resumeDownload(String id) {
+        getDownloadManager().resume(id);
+    }
+
+    @ReactMethod
+    public void removeDownload(String id) {
+        getDownloadManager().remove(id);
+    }
+
+    /** Caps the combined bandwidth of all downloads, 0 for no cap */
+    @ReactMethod
+    public void setDownloadBandwidthLimit(double bytesPerSecond) {
+        getDownloadManager().setMaxBytesPerSecond((long) bytesPerSecond);
+    }
+
+    /** Passes the list of downloads and their progress to callback */
+    @ReactMethod
+    public void getDownloads(Callback callback) {
+        WritableArray array = Arguments.createArray();
+        for (Download download : getDownloadManager().getDownloads()) {
+            WritableMap map = Arguments.createMap();
+            map.putString("id", download.getId());
+            map.putString("uri", download.getUri());
+            map.putString("state", DOWNLOAD_STATES[download.getState()]);
+            map.putDouble("progress", download.getProgress());
+            map.putDouble("bytes", download.getBytesDownloaded());
+            map.putString("error", download.getError());
+            array.pushMap(map);
+        }
+        callback.invoke(array);
+    }
+
+    private DownloadManager getDownloadManager() {
+        return DownloadManager.getInstance(getReactApplicationContext());
+    }
+
+    /** Passes process-wide network request stats to callback */
+    @ReactMethod
+    public void getNetworkStats(Callback callback) {
+        callback.invoke(toMap(DataSourceStats.global()));
+    }
+
+    /**
+     * Passes the network request stats of the video view with reactTag to callback, or null if
+     * it is not attached.
+     */
+    @ReactMethod
+    public void getPlayerNetworkStats(int reactTag, Callback callback) {
+        DataSourceStats stats = ReactVideoHostView.getDataSourceStats(reactTag);
+        callback.invoke(stats == null ? null : toMap(stats));
+    }
+
+    @ReactMethod
+    public void resetNetworkStats() {
+        DataSourceStats.global().reset();
+    }
+
+    private static WritableMap toMap(DataSourceStats stats) {
+        WritableMap map = Arguments.createMap();
+        map.putMap("connectMs", toMap(stats.connectMs));
+        map.putMap("ttfbMs", toMap(stats.ttfbMs));
+        map.putMap("transferMs", toMap(stats.transferMs));
+        map.putMap("bytes", toMap(stats.bytes));
+        map.putMap("bytesPerSecond", toMap(stats.bytesPerSecond));
+        map.putDouble("openErrors", stats.openErrors.get());
+        return map;
+    }
+
+    private static WritableMap toMap(Histogram histogram) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("count", histogram.getCount());
+        map.putDouble("mean", histogram.getMean());
+        map.putDouble("p50", histogram.getPercentile(0.5f));
+        map.putDouble("p90", histogram.getPercentile(0.9f));
+        map.putDouble("p99", histogram.getPercentile(0.99f));
+        map.putDouble("max", histogram.getMax());
+        return map;
+    }
+
+}
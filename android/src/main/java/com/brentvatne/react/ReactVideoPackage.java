@@ -1,6 +1,9 @@
 package com.brentvatne.react;
 
 import android.app.Activity;
+
+import com.brentvatne.react.exoplayer.HttpConnectionPool;
+import com.brentvatne.react.exoplayer.MediaCache;
 import com.facebook.react.ReactPackage;
 import com.facebook.react.bridge.JavaScriptModule;
 import com.facebook.react.bridge.NativeModule;
@@ -13,9 +16,25 @@ import java.util.List;
 
 public class ReactVideoPackage implements ReactPackage {
 
+    public ReactVideoPackage() {
+        this(MediaCache.DEFAULT_MAX_BYTES, false);
+    }
+
+    /**
+     * @param maxCacheBytes Size limit of the media cache
+     * @param encryptCache  Whether cached and downloaded bytes are encrypted on disk
+     */
+    public ReactVideoPackage(long maxCacheBytes, boolean encryptCache) {
+        // Must happen before the first connection is made in the process
+        HttpConnectionPool.init();
+        // The module creates the cache as soon as it is created, configure it before that
+        MediaCache.setMaxBytes(maxCacheBytes);
+        MediaCache.setEncrypted(encryptCache);
+    }
+
     @Override
     public List<NativeModule> createNativeModules(ReactApplicationContext reactContext) {
-        return Collections.emptyList();
+        return Arrays.<NativeModule>asList(new ReactVideoModule(reactContext));
     }
 
     @Override
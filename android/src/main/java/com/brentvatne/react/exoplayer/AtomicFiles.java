@@ -0,0 +1,51 @@
+package com.brentvatne.react.exoplayer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads and replaces small UTF-8 files, such as the JSON records of downloads and licenses.
+ * <p/>
+ * A file is replaced by writing a temporary file next to it, syncing it to disk and renaming it
+ * over the file, so a crash or power loss leaves either the old or the new contents. Like
+ * android.util.AtomicFile, which needs API 17.
+ */
+final class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    static String read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < bytes.length
+                    && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+            return new String(bytes, 0, offset, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    static void write(File file, String contents) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(contents.getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile);
+        }
+    }
+
+}
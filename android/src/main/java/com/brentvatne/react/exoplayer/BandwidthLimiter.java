@@ -0,0 +1,54 @@
+package com.brentvatne.react.exoplayer;
+
+import android.os.SystemClock;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket shared by several readers to cap their combined throughput.
+ * <p/>
+ * Readers report each read after the fact and are put to sleep once they have used more than
+ * their share, so bursts of up to one second's worth of bytes pass through unthrottled.
+ */
+public final class BandwidthLimiter {
+
+    /** Bytes per second, 0 for no limit */
+    private long bytesPerSecond;
+    private double availableBytes;
+    private long lastRefillMs;
+
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        availableBytes = Math.min(availableBytes, this.bytesPerSecond);
+        lastRefillMs = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /** Accounts for bytes that were just read, sleeping if over the limit */
+    public void onBytesRead(int bytes) throws InterruptedIOException {
+        long waitMs;
+        synchronized (this) {
+            if (bytesPerSecond == 0) {
+                return;
+            }
+            long nowMs = SystemClock.elapsedRealtime();
+            availableBytes = Math.min(bytesPerSecond,
+                    availableBytes + (nowMs - lastRefillMs) * bytesPerSecond / 1000d);
+            lastRefillMs = nowMs;
+            availableBytes -= bytes;
+            waitMs = availableBytes >= 0 ? 0 : (long) (-availableBytes * 1000 / bytesPerSecond);
+        }
+        if (waitMs > 0) {
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+}
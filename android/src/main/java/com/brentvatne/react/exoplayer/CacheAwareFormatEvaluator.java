@@ -0,0 +1,134 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.util.ManifestFetcher;
+
+import java.util.List;
+
+/**
+ * Upgrades the choice of another {@link FormatEvaluator} to the best DASH representation whose
+ * next few segments are all in the {@link MediaCache}, whatever the bandwidth estimate.
+ * <p/>
+ * A replay then comes out at the quality that was cached, without touching the network. Cache hits
+ * never reach the bandwidth meter (only network transfers are reported to it), so they do not skew
+ * the estimate the wrapped evaluator relies on. Live presentations are left alone.
+ */
+public final class CacheAwareFormatEvaluator implements FormatEvaluator {
+
+    /** Segments after the buffered ones that must all be cached for a representation to qualify */
+    private static final int LOOKAHEAD_SEGMENTS = 3;
+
+    private final FormatEvaluator evaluator;
+    private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
+    private final int adaptationSetType;
+    private final Cache cache;
+
+    /**
+     * @param adaptationSetType Type of the adaptation sets the formats come from, one of the
+     *                          {@link AdaptationSet} TYPE_* constants.
+     */
+    public CacheAwareFormatEvaluator(FormatEvaluator evaluator,
+                                     ManifestFetcher<MediaPresentationDescription> manifestFetcher,
+                                     int adaptationSetType, Cache cache) {
+        this.evaluator = evaluator;
+        this.manifestFetcher = manifestFetcher;
+        this.adaptationSetType = adaptationSetType;
+        this.cache = cache;
+    }
+
+    @Override
+    public void enable() {
+        evaluator.enable();
+    }
+
+    @Override
+    public void disable() {
+        evaluator.disable();
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+                         Format[] formats, Evaluation evaluation) {
+        Format current = evaluation.format;
+        int currentTrigger = evaluation.trigger;
+        evaluator.evaluate(queue, playbackPositionUs, formats, evaluation);
+        MediaPresentationDescription manifest = manifestFetcher.getManifest();
+        if (evaluation.format == null || manifest == null || manifest.dynamic) {
+            return;
+        }
+        long nextTimeUs = queue.isEmpty() ? playbackPositionUs
+                : queue.get(queue.size() - 1).endTimeUs;
+        Format best = null;
+        for (Format format : formats) {
+            if (format.bitrate > evaluation.format.bitrate
+                    && (best == null || format.bitrate > best.bitrate)
+                    && isCached(manifest, format.id, nextTimeUs)) {
+                best = format;
+            }
+        }
+        if (best == null) {
+            return;
+        }
+        evaluation.format = best;
+        evaluation.trigger = best == current ? currentTrigger : Chunk.TRIGGER_ADAPTIVE;
+    }
+
+    /** Whether the segments of representation formatId from timeUs on are cached */
+    private boolean isCached(MediaPresentationDescription manifest, String formatId, long timeUs) {
+        for (int i = 0; i < manifest.getPeriodCount(); i++) {
+            Period period = manifest.getPeriod(i);
+            long periodDurationMs = manifest.getPeriodDuration(i);
+            long periodStartUs = period.startMs * 1000;
+            if (periodDurationMs == -1 || timeUs < periodStartUs
+                    || timeUs >= periodStartUs + periodDurationMs * 1000) {
+                continue;
+            }
+            Representation representation = findRepresentation(period, formatId);
+            DashSegmentIndex index = representation == null ? null : representation.getIndex();
+            if (index == null) {
+                // Indexed by a sidx box we have not parsed
+                return false;
+            }
+            long periodDurationUs = periodDurationMs * 1000;
+            int segmentNum = index.getSegmentNum(timeUs - periodStartUs, periodDurationUs);
+            int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+            if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED || segmentNum > lastSegmentNum) {
+                return false;
+            }
+            int endSegmentNum = Math.min(segmentNum + LOOKAHEAD_SEGMENTS - 1, lastSegmentNum);
+            for (int j = segmentNum; j <= endSegmentNum; j++) {
+                RangedUri segment = index.getSegmentUrl(j);
+                if (!MediaCache.isCached(cache, segment.getUri(), segment.start, segment.length)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private Representation findRepresentation(Period period, String formatId) {
+        for (AdaptationSet adaptationSet : period.adaptationSets) {
+            if (adaptationSet.type != adaptationSetType) {
+                continue;
+            }
+            for (Representation representation : adaptationSet.representations) {
+                if (representation.format.id.equals(formatId)) {
+                    return representation;
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,275 @@
+package com.brentvatne.react.exoplayer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer.upstream.cache.CacheSpan;
+import com.google.android.exoplayer.util.Util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encryption of cached media bytes with AES in CTR mode.
+ * <p/>
+ * Every span file gets its own key, derived from a master key with HMAC-SHA256 over the cache key
+ * and the position of the span. CTR turns AES into a stream cipher whose keystream at any offset
+ * can be computed directly, so reading from the middle of a span after a seek decrypts only the
+ * bytes read, and ciphertext is exactly as long as plaintext, which {@link
+ * com.google.android.exoplayer.upstream.cache.SimpleCache} relies on to measure spans.
+ * <p/>
+ * The same range can be written again with different bytes, after eviction or when the resource
+ * changed, so each write also puts a random nonce in the first half of the counter block, which
+ * keeps those writes from sharing a keystream. Nonces are stored in a directory next to the cache
+ * directory (see {@link #getNonceDir(File)}), since SimpleCache deletes unknown files in its own.
+ * <p/>
+ * The master key is generated once and kept in app-private storage, outside of the cache
+ * directory, so cached files copied off the device cannot be played. From API 21 it is kept where
+ * auto backup does not pick it up.
+ */
+public final class CacheEncryption {
+
+    private static final String LOGTAG = CacheEncryption.class.getSimpleName();
+
+    private static final String KEY_FILE_NAME = "exo_media_cache.key";
+    private static final int MASTER_KEY_SIZE = 32;
+    private static final int SPAN_KEY_SIZE = 16;
+    private static final int BLOCK_SIZE = 16;
+    private static final int NONCE_SIZE = 8;
+    private static final String NONCE_DIR_SUFFIX = ".nonces";
+
+    private static final String CIPHER_TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static CacheEncryption instance;
+
+    private final SecretKeySpec masterKey;
+    private final boolean keyCreated;
+    private final SecureRandom random = new SecureRandom();
+
+    private CacheEncryption(byte[] masterKey, boolean keyCreated) {
+        this.masterKey = new SecretKeySpec(masterKey, MAC_ALGORITHM);
+        this.keyCreated = keyCreated;
+    }
+
+    /** Returns the encryption, creating the master key on first use */
+    public static synchronized CacheEncryption getInstance(Context context) throws IOException {
+        if (instance == null) {
+            File keyFile = getKeyFile(context.getApplicationContext());
+            byte[] key = loadKey(keyFile);
+            instance = key != null ? new CacheEncryption(key, false)
+                    : new CacheEncryption(createKey(keyFile), true);
+        }
+        return instance;
+    }
+
+    /**
+     * Whether the master key was created by this process, in which case anything encrypted
+     * before (with a key that has since been lost) must be discarded.
+     */
+    public boolean isKeyCreated() {
+        return keyCreated;
+    }
+
+    /** Returns a cipher for {@link #init(Cipher, int, String, long, byte[], long)} */
+    public static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(CIPHER_TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            // AES/CTR is available on every Android version we support
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Returns a random nonce for a span about to be written */
+    public byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        synchronized (random) {
+            random.nextBytes(nonce);
+        }
+        return nonce;
+    }
+
+    /**
+     * Sets up cipher to encrypt or decrypt the span of key starting at spanPosition, from offset
+     * bytes into the span onwards.
+     *
+     * @param mode  {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}.
+     * @param nonce The nonce the span was written with, see {@link #newNonce()}.
+     */
+    public void init(Cipher cipher, int mode, String key, long spanPosition, byte[] nonce,
+                     long offset) {
+        byte[] iv = new byte[BLOCK_SIZE];
+        System.arraycopy(nonce, 0, iv, 0, NONCE_SIZE);
+        long block = offset / BLOCK_SIZE;
+        for (int i = BLOCK_SIZE - 1; i >= BLOCK_SIZE - 8; i--) {
+            iv[i] = (byte) block;
+            block >>>= 8;
+        }
+        try {
+            cipher.init(mode, new SecretKeySpec(deriveSpanKey(key, spanPosition), "AES"),
+                    new IvParameterSpec(iv));
+            int skip = (int) (offset % BLOCK_SIZE);
+            if (skip > 0) {
+                cipher.update(new byte[skip]);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] deriveSpanKey(String key, long spanPosition) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(masterKey);
+        mac.update(key.getBytes(UTF_8));
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mac.update((byte) (spanPosition >>> shift));
+        }
+        byte[] spanKey = new byte[SPAN_KEY_SIZE];
+        System.arraycopy(mac.doFinal(), 0, spanKey, 0, SPAN_KEY_SIZE);
+        return spanKey;
+    }
+
+    /** Directory with the nonces of the spans in cacheDir */
+    public static File getNonceDir(File cacheDir) {
+        return new File(cacheDir.getPath() + NONCE_DIR_SUFFIX);
+    }
+
+    /** Stores the nonce of the span of key at position, before the span file is written */
+    public static void writeNonce(File spanFile, String key, long position, byte[] nonce)
+            throws IOException {
+        File nonceFile = getNonceFile(spanFile, key, position);
+        nonceFile.getParentFile().mkdirs();
+        writeFile(nonceFile, nonce);
+    }
+
+    /** Returns the nonce of the span of key at position */
+    public static byte[] readNonce(File spanFile, String key, long position) throws IOException {
+        File nonceFile = getNonceFile(spanFile, key, position);
+        if (nonceFile.length() != NONCE_SIZE) {
+            throw new FileNotFoundException("No nonce for " + spanFile);
+        }
+        return readFile(nonceFile, NONCE_SIZE);
+    }
+
+    /** Wraps evictor so that nonces are deleted along with their spans */
+    public static CacheEvictor withNonceRemoval(final CacheEvictor evictor) {
+        return new CacheEvictor() {
+            @Override
+            public void onStartFile(Cache cache, String key, long position, long length) {
+                evictor.onStartFile(cache, key, position, length);
+            }
+
+            @Override
+            public void onSpanAdded(Cache cache, CacheSpan span) {
+                evictor.onSpanAdded(cache, span);
+            }
+
+            @Override
+            public void onSpanRemoved(Cache cache, CacheSpan span) {
+                getNonceFile(span.file, span.key, span.position).delete();
+                evictor.onSpanRemoved(cache, span);
+            }
+
+            @Override
+            public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+                evictor.onSpanTouched(cache, oldSpan, newSpan);
+            }
+        };
+    }
+
+    private static File getNonceFile(File spanFile, String key, long position) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            name.append(String.format("%02x", digest[i]));
+        }
+        name.append('.').append(position);
+        return new File(getNonceDir(spanFile.getParentFile()), name.toString());
+    }
+
+    /** Not backed up from API 21. A key in the old location is moved there. */
+    private static File getKeyFile(Context context) {
+        File legacyFile = new File(context.getFilesDir(), KEY_FILE_NAME);
+        if (Util.SDK_INT < 21) {
+            return legacyFile;
+        }
+        File keyFile = new File(getNoBackupFilesDir(context), KEY_FILE_NAME);
+        if (legacyFile.exists() && !keyFile.exists() && !legacyFile.renameTo(keyFile)) {
+            Log.w(LOGTAG, "getKeyFile(): could not move " + legacyFile);
+            return legacyFile;
+        }
+        return keyFile;
+    }
+
+    @TargetApi(21)
+    private static File getNoBackupFilesDir(Context context) {
+        return context.getNoBackupFilesDir();
+    }
+
+    /** Returns the stored master key, or null if there is none */
+    private static byte[] loadKey(File keyFile) throws IOException {
+        if (keyFile.length() != MASTER_KEY_SIZE) {
+            return null;
+        }
+        return readFile(keyFile, MASTER_KEY_SIZE);
+    }
+
+    private static byte[] createKey(File keyFile) throws IOException {
+        Log.d(LOGTAG, "createKey(): creating master key");
+        byte[] key = new byte[MASTER_KEY_SIZE];
+        new SecureRandom().nextBytes(key);
+        writeFile(keyFile, key);
+        return key;
+    }
+
+    private static byte[] readFile(File file, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        return bytes;
+    }
+
+    /** Writes bytes to a temporary file renamed over file, so file is never partly written */
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tempFile);
+        try {
+            output.write(bytes);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not rename " + tempFile);
+        }
+    }
+
+}
@@ -0,0 +1,287 @@
+package com.brentvatne.react.exoplayer;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Compact binary index of the spans in a cache directory. Kept outside of the directory since
+ * {@link com.google.android.exoplayer.upstream.cache.SimpleCache} deletes any file in there that
+ * is not a span.
+ * <p/>
+ * The file is a header followed by append-only add/remove records, so keeping it up to date costs
+ * one small write per span. It is memory mapped and parsed on first query, which is much cheaper
+ * than listing and parsing the names of thousands of span files. A record cut short by the process
+ * dying ends the index; anything lost that way only costs a network request. Not thread safe.
+ * <p/>
+ * Spans carry their last access time, which together with key and position names the span file,
+ * so indexed spans can be read before the directory is scanned.
+ */
+final class CacheIndex {
+
+    /** A span as recorded in the index */
+    static final class Span {
+
+        final long position;
+        final long length;
+        final long lastAccessTimestamp;
+
+        Span(long position, long length, long lastAccessTimestamp) {
+            this.position = position;
+            this.length = length;
+            this.lastAccessTimestamp = lastAccessTimestamp;
+        }
+
+    }
+
+
+    private static final String LOGTAG = CacheIndex.class.getSimpleName();
+
+    private static final int MAGIC = 0x52564349; // "RVCI"
+    private static final int VERSION = 2;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    /** Spans by position, by key */
+    private final Map<String, NavigableMap<Long, Span>> spans = new HashMap<>();
+
+    private boolean loaded;
+    private DataOutputStream output;
+
+    CacheIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Whether a span of key holds the byte at position, according to the index.
+     * <p/>
+     * Loads the index on first call.
+     */
+    boolean contains(String key, long position) {
+        return get(key, position) != null;
+    }
+
+    /**
+     * Returns the span of key that holds the byte at position, according to the index, or null.
+     * <p/>
+     * Loads the index on first call.
+     */
+    Span get(String key, long position) {
+        load();
+        NavigableMap<Long, Span> keySpans = spans.get(key);
+        if (keySpans == null) {
+            return null;
+        }
+        Map.Entry<Long, Span> entry = keySpans.floorEntry(position);
+        if (entry == null) {
+            return null;
+        }
+        Span span = entry.getValue();
+        return span.position + span.length > position ? span : null;
+    }
+
+    /**
+     * Whether spans of key hold every byte from position on for length bytes, according to the
+     * index. Loads the index on first call.
+     */
+    boolean contains(String key, long position, long length) {
+        long end = position + length;
+        while (position < end) {
+            Span span = get(key, position);
+            if (span == null) {
+                return false;
+            }
+            position = span.position + span.length;
+        }
+        return true;
+    }
+
+    /** Adds a span, or updates its last access time */
+    void add(String key, long position, long length, long lastAccessTimestamp) {
+        putSpan(key, new Span(position, length, lastAccessTimestamp));
+        append(OP_ADD, key, position, length, lastAccessTimestamp);
+    }
+
+    void remove(String key, long position) {
+        removeSpan(key, position);
+        append(OP_REMOVE, key, position, 0, 0);
+    }
+
+    /**
+     * Replaces the index with the given spans, as found by a full scan of the cache directory.
+     * Written to a temporary file first so a crash never leaves a partial index behind.
+     */
+    void rewrite(Map<String, NavigableMap<Long, Span>> newSpans) {
+        closeOutput();
+        spans.clear();
+        spans.putAll(newSpans);
+        loaded = true;
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<String, NavigableMap<Long, Span>> keySpans : spans.entrySet()) {
+                for (Span span : keySpans.getValue().values()) {
+                    writeRecord(out, OP_ADD, keySpans.getKey(), span.position, span.length,
+                            span.lastAccessTimestamp);
+                }
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(LOGTAG, "rewrite(): failed, discarding index", e);
+            file.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            tempFile.delete();
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Log.w(LOGTAG, "load(): unknown format, ignoring " + file);
+                return;
+            }
+            int records = 0;
+            while (buffer.hasRemaining()) {
+                readRecord(buffer);
+                records++;
+            }
+            Log.d(LOGTAG, "load(): " + records + " records for " + spans.size() + " keys");
+        } catch (BufferUnderflowException e) {
+            Log.w(LOGTAG, "load(): index truncated, keeping " + spans.size() + " keys");
+        } catch (IOException e) {
+            Log.w(LOGTAG, "load(): failed", e);
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private void readRecord(ByteBuffer buffer) {
+        byte op = buffer.get();
+        byte[] keyBytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(keyBytes);
+        long position = buffer.getLong();
+        long length = buffer.getLong();
+        long lastAccessTimestamp = buffer.getLong();
+        String key = new String(keyBytes, UTF_8);
+        if (op == OP_ADD) {
+            putSpan(key, new Span(position, length, lastAccessTimestamp));
+        } else {
+            removeSpan(key, position);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte op, String key, long position,
+                                    long length, long lastAccessTimestamp) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        out.writeByte(op);
+        out.writeShort(keyBytes.length);
+        out.write(keyBytes);
+        out.writeLong(position);
+        out.writeLong(length);
+        out.writeLong(lastAccessTimestamp);
+    }
+
+    private void append(byte op, String key, long position, long length,
+                        long lastAccessTimestamp) {
+        if (key.length() > Short.MAX_VALUE / 3) {
+            // Longer than the record can hold in UTF-8, leave it to the directory scan
+            return;
+        }
+        try {
+            if (output == null) {
+                boolean exists = file.exists();
+                output = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true)));
+                if (!exists) {
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                }
+            }
+            writeRecord(output, op, key, position, length, lastAccessTimestamp);
+            output.flush();
+        } catch (IOException e) {
+            Log.w(LOGTAG, "append(): failed", e);
+            closeOutput();
+        }
+    }
+
+    private void closeOutput() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            output = null;
+        }
+    }
+
+    private void putSpan(String key, Span span) {
+        NavigableMap<Long, Span> keySpans = spans.get(key);
+        if (keySpans == null) {
+            keySpans = new TreeMap<>();
+            spans.put(key, keySpans);
+        }
+        keySpans.put(span.position, span);
+    }
+
+    private void removeSpan(String key, long position) {
+        NavigableMap<Long, Span> keySpans = spans.get(key);
+        if (keySpans != null) {
+            keySpans.remove(position);
+            if (keySpans.isEmpty()) {
+                spans.remove(key);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.upstream.DataSource;
+
+/**
+ * A {@link DataSource} whose open or read in progress can be aborted from another thread.
+ * <p/>
+ * For wrappers that read upstream on threads of their own, which are not interrupted when the
+ * loader is canceled, and would otherwise wait out timeouts and retries before they can close.
+ */
+interface CancelableDataSource extends DataSource {
+
+    /**
+     * Makes the open or read in progress, and any retry of it, fail soon. May be called on any
+     * thread. Cleared by the next open.
+     */
+    void cancel();
+
+}
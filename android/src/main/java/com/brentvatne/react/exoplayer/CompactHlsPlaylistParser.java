@@ -0,0 +1,295 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.ParserException;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist.Segment;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.upstream.UriLoadable;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link HlsPlaylistParser} replacement that keeps media playlists compact.
+ * <p/>
+ * Media playlists are parsed line by line straight into primitive arrays, with all segment uris
+ * sharing one character buffer, instead of one {@link Segment} and one String per entry. The
+ * playlist's segment list creates Segments on access, so a lecture with tens of thousands of
+ * segments takes a fraction of the heap and leaves far less garbage behind. Master playlists are
+ * small and are handed to HlsPlaylistParser.
+ * <p/>
+ * Produces the same playlists as HlsPlaylistParser for the tags it understands.
+ */
+public final class CompactHlsPlaylistParser implements UriLoadable.Parser<HlsPlaylist> {
+
+    private static final String STREAM_INF_TAG = "#EXT-X-STREAM-INF";
+    private static final String MEDIA_TAG = "#EXT-X-MEDIA";
+    private static final String TARGET_DURATION_TAG = "#EXT-X-TARGETDURATION";
+    private static final String MEDIA_SEQUENCE_TAG = "#EXT-X-MEDIA-SEQUENCE";
+    private static final String VERSION_TAG = "#EXT-X-VERSION";
+    private static final String MEDIA_DURATION_TAG = "#EXTINF";
+    private static final String KEY_TAG = "#EXT-X-KEY";
+    private static final String BYTERANGE_TAG = "#EXT-X-BYTERANGE";
+    private static final String DISCONTINUITY_TAG = "#EXT-X-DISCONTINUITY";
+    private static final String DISCONTINUITY_SEQUENCE_TAG = "#EXT-X-DISCONTINUITY-SEQUENCE";
+    private static final String ENDLIST_TAG = "#EXT-X-ENDLIST";
+
+    private static final String METHOD_AES128 = "AES-128";
+
+    private static final Pattern METHOD_ATTR_REGEX = Pattern.compile("METHOD=([^,.*]+)");
+    private static final Pattern URI_ATTR_REGEX = Pattern.compile("URI=\"(.+?)\"");
+    private static final Pattern IV_ATTR_REGEX = Pattern.compile("IV=([^,.*]+)");
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final HlsPlaylistParser masterPlaylistParser = new HlsPlaylistParser();
+
+    @Override
+    public HlsPlaylist parse(String connectionUrl, InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
+        StringBuilder consumed = new StringBuilder();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith(STREAM_INF_TAG) || line.startsWith(MEDIA_TAG + ":")) {
+                    return parseMasterPlaylist(connectionUrl, consumed.append(line), reader);
+                } else if (isMediaPlaylistTag(line)) {
+                    return new MediaPlaylistBuilder(connectionUrl).parse(consumed, line, reader);
+                }
+                consumed.append(line).append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+        throw new ParserException("Failed to parse the playlist, could not identify any tags.");
+    }
+
+    private static boolean isMediaPlaylistTag(String line) {
+        return line.startsWith(TARGET_DURATION_TAG) || line.startsWith(MEDIA_SEQUENCE_TAG)
+                || line.startsWith(MEDIA_DURATION_TAG) || line.startsWith(KEY_TAG)
+                || line.startsWith(BYTERANGE_TAG) || line.equals(DISCONTINUITY_TAG)
+                || line.startsWith(DISCONTINUITY_SEQUENCE_TAG) || line.equals(ENDLIST_TAG);
+    }
+
+    /** Feeds the lines read so far and the rest of the playlist to HlsPlaylistParser */
+    private HlsPlaylist parseMasterPlaylist(String connectionUrl, StringBuilder playlist,
+                                           BufferedReader reader) throws IOException {
+        char[] buffer = new char[4096];
+        playlist.append('\n');
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            playlist.append(buffer, 0, read);
+        }
+        return masterPlaylistParser.parse(connectionUrl,
+                new ByteArrayInputStream(playlist.toString().getBytes(UTF_8)));
+    }
+
+    /** Parses a media playlist into {@link CompactSegmentList} arrays */
+    private static final class MediaPlaylistBuilder {
+
+        private final String baseUri;
+
+        private int mediaSequence;
+        private int targetDurationSecs;
+        private int version = 1;
+        private boolean live = true;
+
+        private final CompactSegmentList segments = new CompactSegmentList();
+        /** Index in segments.keys of the key in effect, -1 if unencrypted */
+        private int keyIndex = -1;
+        private double durationSecs;
+        private int discontinuitySequenceNumber;
+        private long startTimeUs;
+        private long byterangeOffset;
+        private int byterangeLength = C.LENGTH_UNBOUNDED;
+
+        MediaPlaylistBuilder(String baseUri) {
+            this.baseUri = baseUri;
+        }
+
+        /**
+         * @param consumed  Lines read before firstLine, which may hold tags like #EXT-X-VERSION
+         *                  that do not identify a media playlist
+         * @param firstLine The first line that identified a media playlist
+         */
+        HlsMediaPlaylist parse(CharSequence consumed, String firstLine, BufferedReader reader)
+                throws IOException {
+            try {
+                for (String consumedLine : consumed.toString().split("\n")) {
+                    if (consumedLine.startsWith("#")) {
+                        parseLine(consumedLine);
+                    }
+                }
+                String line = firstLine;
+                do {
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        parseLine(line);
+                    }
+                } while ((line = reader.readLine()) != null);
+            } catch (NumberFormatException e) {
+                throw new ParserException(e);
+            }
+            segments.trim();
+            segments.firstMediaSequence = mediaSequence;
+            return new HlsMediaPlaylist(baseUri, mediaSequence, targetDurationSecs, version, live,
+                    segments);
+        }
+
+        private void parseLine(String line) throws ParserException {
+            if (line.startsWith(MEDIA_DURATION_TAG)) {
+                int end = line.indexOf(',');
+                durationSecs = Double.parseDouble(line.substring(MEDIA_DURATION_TAG.length() + 1,
+                        end == -1 ? line.length() : end));
+            } else if (!line.startsWith("#")) {
+                if (byterangeLength == C.LENGTH_UNBOUNDED) {
+                    byterangeOffset = 0;
+                }
+                segments.add(line, durationSecs, discontinuitySequenceNumber, startTimeUs, keyIndex,
+                        byterangeOffset, byterangeLength);
+                startTimeUs += (long) (durationSecs * C.MICROS_PER_SECOND);
+                durationSecs = 0;
+                if (byterangeLength != C.LENGTH_UNBOUNDED) {
+                    byterangeOffset += byterangeLength;
+                }
+                byterangeLength = C.LENGTH_UNBOUNDED;
+            } else if (line.startsWith(TARGET_DURATION_TAG)) {
+                targetDurationSecs = parseIntValue(line);
+            } else if (line.startsWith(MEDIA_SEQUENCE_TAG)) {
+                mediaSequence = parseIntValue(line);
+            } else if (line.startsWith(VERSION_TAG)) {
+                version = parseIntValue(line);
+            } else if (line.startsWith(KEY_TAG)) {
+                String method = parseAttr(line, METHOD_ATTR_REGEX);
+                if (METHOD_AES128.equals(method)) {
+                    String uri = parseAttr(line, URI_ATTR_REGEX);
+                    if (uri == null) {
+                        throw new ParserException("Couldn't match URI in " + line);
+                    }
+                    segments.keys.add(new String[] {uri, parseAttr(line, IV_ATTR_REGEX)});
+                    keyIndex = segments.keys.size() - 1;
+                } else {
+                    keyIndex = -1;
+                }
+            } else if (line.startsWith(BYTERANGE_TAG)) {
+                String[] byterange = line.substring(BYTERANGE_TAG.length() + 1).split("@");
+                byterangeLength = Integer.parseInt(byterange[0]);
+                if (byterange.length > 1) {
+                    byterangeOffset = Integer.parseInt(byterange[1]);
+                }
+            } else if (line.startsWith(DISCONTINUITY_SEQUENCE_TAG)) {
+                discontinuitySequenceNumber = parseIntValue(line);
+            } else if (line.equals(DISCONTINUITY_TAG)) {
+                discontinuitySequenceNumber++;
+            } else if (line.equals(ENDLIST_TAG)) {
+                live = false;
+            }
+        }
+
+        private static int parseIntValue(String line) {
+            return Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+        }
+
+        private static String parseAttr(String line, Pattern pattern) {
+            Matcher matcher = pattern.matcher(line);
+            return matcher.find() ? matcher.group(1) : null;
+        }
+
+    }
+
+    /**
+     * Segments of a media playlist held in parallel arrays, materialized on access. Read only once
+     * parsed.
+     */
+    private static final class CompactSegmentList extends AbstractList<Segment>
+            implements RandomAccess {
+
+        /** Uri and IV (null to derive it from the media sequence) of each key tag */
+        final List<String[]> keys = new ArrayList<>();
+        int firstMediaSequence;
+
+        private int size;
+        private final StringBuilder uriChars = new StringBuilder();
+        private int[] uriEnds = new int[INITIAL_CAPACITY];
+        private double[] durationsSecs = new double[INITIAL_CAPACITY];
+        private int[] discontinuitySequenceNumbers = new int[INITIAL_CAPACITY];
+        private long[] startTimesUs = new long[INITIAL_CAPACITY];
+        private int[] keyIndices = new int[INITIAL_CAPACITY];
+        private long[] byterangeOffsets = new long[INITIAL_CAPACITY];
+        private int[] byterangeLengths = new int[INITIAL_CAPACITY];
+
+        void add(String uri, double durationSecs, int discontinuitySequenceNumber,
+                 long startTimeUs, int keyIndex, long byterangeOffset, int byterangeLength) {
+            if (size == uriEnds.length) {
+                resize(size * 2);
+            }
+            uriChars.append(uri);
+            uriEnds[size] = uriChars.length();
+            durationsSecs[size] = durationSecs;
+            discontinuitySequenceNumbers[size] = discontinuitySequenceNumber;
+            startTimesUs[size] = startTimeUs;
+            keyIndices[size] = keyIndex;
+            byterangeOffsets[size] = byterangeOffset;
+            byterangeLengths[size] = byterangeLength;
+            size++;
+        }
+
+        void trim() {
+            resize(size);
+            uriChars.trimToSize();
+        }
+
+        @Override
+        public Segment get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            int uriStart = index == 0 ? 0 : uriEnds[index - 1];
+            String uri = uriChars.substring(uriStart, uriEnds[index]);
+            int keyIndex = keyIndices[index];
+            String keyUri = null;
+            String iv = null;
+            if (keyIndex != -1) {
+                String[] key = keys.get(keyIndex);
+                keyUri = key[0];
+                iv = key[1] != null ? key[1] : Integer.toHexString(firstMediaSequence + index);
+            }
+            return new Segment(uri, durationsSecs[index], discontinuitySequenceNumbers[index],
+                    startTimesUs[index], keyIndex != -1, keyUri, iv, byterangeOffsets[index],
+                    byterangeLengths[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private void resize(int capacity) {
+            uriEnds = Arrays.copyOf(uriEnds, capacity);
+            durationsSecs = Arrays.copyOf(durationsSecs, capacity);
+            discontinuitySequenceNumbers = Arrays.copyOf(discontinuitySequenceNumbers, capacity);
+            startTimesUs = Arrays.copyOf(startTimesUs, capacity);
+            keyIndices = Arrays.copyOf(keyIndices, capacity);
+            byterangeOffsets = Arrays.copyOf(byterangeOffsets, capacity);
+            byterangeLengths = Arrays.copyOf(byterangeLengths, capacity);
+        }
+
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.ParserException;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.dash.mpd.SegmentBase.SegmentTimelineElement;
+import com.google.android.exoplayer.util.ParserUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * {@link MediaPresentationDescriptionParser} that keeps SegmentTimelines run-length encoded.
+ * <p/>
+ * The stock parser expands every {@code <S r="...">} into one {@link SegmentTimelineElement} per
+ * segment, which for a live stream with a long DVR window means thousands of objects on every
+ * manifest refresh. Here each run of equal, back to back segments is three primitives, and
+ * elements are created on lookup by the segment index.
+ */
+public class CompactMpdParser extends MediaPresentationDescriptionParser {
+
+    @Override
+    protected List<SegmentTimelineElement> parseSegmentTimeline(XmlPullParser xpp)
+            throws XmlPullParserException, IOException {
+        RunLengthTimeline timeline = new RunLengthTimeline();
+        long elapsedTime = 0;
+        do {
+            xpp.next();
+            if (ParserUtil.isStartTag(xpp, "S")) {
+                try {
+                    elapsedTime = parseLongAttr(xpp, "t", elapsedTime);
+                    long duration = Long.parseLong(xpp.getAttributeValue(null, "d"));
+                    int count = 1 + (int) parseLongAttr(xpp, "r", 0);
+                    timeline.add(elapsedTime, duration, count);
+                    elapsedTime += duration * count;
+                } catch (NumberFormatException e) {
+                    throw new ParserException(e);
+                }
+            }
+        } while (!ParserUtil.isEndTag(xpp, "SegmentTimeline"));
+        timeline.trim();
+        return timeline;
+    }
+
+    private static long parseLongAttr(XmlPullParser xpp, String name, long defaultValue) {
+        String value = xpp.getAttributeValue(null, name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /** Timeline as runs of segments of equal duration, expanded on access */
+    private static final class RunLengthTimeline extends AbstractList<SegmentTimelineElement>
+            implements RandomAccess {
+
+        private static final int INITIAL_CAPACITY = 8;
+
+        private int runCount;
+        private long[] runStartTimes = new long[INITIAL_CAPACITY];
+        private long[] runDurations = new long[INITIAL_CAPACITY];
+        /** Index of the first segment of each run */
+        private int[] runFirstIndices = new int[INITIAL_CAPACITY];
+        private int size;
+
+        void add(long startTime, long duration, int count) {
+            if (count <= 0) {
+                return;
+            }
+            int last = runCount - 1;
+            if (last >= 0 && runDurations[last] == duration
+                    && runStartTimes[last] + (size - runFirstIndices[last]) * duration == startTime) {
+                // Continues the previous run
+                size += count;
+                return;
+            }
+            if (runCount == runStartTimes.length) {
+                resize(runCount * 2);
+            }
+            runStartTimes[runCount] = startTime;
+            runDurations[runCount] = duration;
+            runFirstIndices[runCount] = size;
+            runCount++;
+            size += count;
+        }
+
+        void trim() {
+            resize(runCount);
+        }
+
+        @Override
+        public SegmentTimelineElement get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            int run = Arrays.binarySearch(runFirstIndices, 0, runCount, index);
+            if (run < 0) {
+                // Insertion point is the run after the one holding index
+                run = -run - 2;
+            }
+            long duration = runDurations[run];
+            return new SegmentTimelineElement(
+                    runStartTimes[run] + (index - runFirstIndices[run]) * duration, duration);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private void resize(int capacity) {
+            runStartTimes = Arrays.copyOf(runStartTimes, capacity);
+            runDurations = Arrays.copyOf(runDurations, capacity);
+            runFirstIndices = Arrays.copyOf(runFirstIndices, capacity);
+        }
+
+    }
+
+}
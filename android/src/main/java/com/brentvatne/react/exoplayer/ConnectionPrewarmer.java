@@ -0,0 +1,145 @@
+package com.brentvatne.react.exoplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves and connects to a source host ahead of playback.
+ * <p/>
+ * A HEAD request leaves an idle keep-alive connection in the {@link HttpConnectionPool}, so the
+ * manifest or first media request skips DNS, TCP and TLS setup. Work runs on one background
+ * thread and each host is warmed at most once per {@link #REWARM_INTERVAL_MS}. When more than
+ * {@link #MAX_PENDING} hosts wait, the oldest is dropped.
+ */
+public final class ConnectionPrewarmer {
+
+    private static final String LOGTAG = ConnectionPrewarmer.class.getSimpleName();
+
+    /** Idle pooled connections are evicted after a few minutes, re-warm before that */
+    private static final long REWARM_INTERVAL_MS = 60 * 1000;
+    private static final int MAX_PENDING = 8;
+    private static final int TIMEOUT_MS = 5000;
+
+    /** When origins were last warmed, for the last REWARM_INTERVAL_MS. Guarded by itself. */
+    private static final Map<String, Long> lastWarmedMs = new HashMap<>();
+    /** Origins queued for warming. Guarded by lastWarmedMs. */
+    private static final Set<String> pending = new HashSet<>();
+
+    /** Drops the oldest queued warm-up, like DiscardOldestPolicy, and lets it be queued again */
+    private static final RejectedExecutionHandler discardOldest = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor pool) {
+            if (pool.isShutdown()) {
+                return;
+            }
+            Runnable oldest = pool.getQueue().poll();
+            if (oldest != null) {
+                synchronized (lastWarmedMs) {
+                    pending.remove(((WarmTask) oldest).origin);
+                }
+            }
+            pool.execute(r);
+        }
+    };
+
+    private static final ExecutorService executor = new ThreadPoolExecutor(1, 1, 30,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_PENDING), discardOldest);
+
+    static {
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    private ConnectionPrewarmer() {
+    }
+
+    /** Warms up a connection for uri. Ignored for non-network uris. */
+    public static void prewarm(String uriString) {
+        if (uriString == null) {
+            return;
+        }
+        final Uri uri = Uri.parse(uriString);
+        if (!MediaCache.isCacheable(uri) || uri.getHost() == null) {
+            return;
+        }
+        String origin = uri.getScheme() + "://" + uri.getAuthority();
+        long now = SystemClock.elapsedRealtime();
+        synchronized (lastWarmedMs) {
+            Iterator<Long> iterator = lastWarmedMs.values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next() >= REWARM_INTERVAL_MS) {
+                    iterator.remove();
+                }
+            }
+            if (lastWarmedMs.containsKey(origin) || !pending.add(origin)) {
+                return;
+            }
+        }
+        executor.execute(new WarmTask(origin, uri));
+    }
+
+    private static void warm(Uri uri) {
+        long startMs = SystemClock.elapsedRealtime();
+        HttpURLConnection connection = null;
+        try {
+            InetAddress.getAllByName(uri.getHost());
+            connection = HttpConnectionPool.openConnection(new URL(uri.toString()));
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            int responseCode = connection.getResponseCode();
+            // Release the (empty) body so the connection goes back to the pool
+            InputStream body = responseCode < 400 ? connection.getInputStream()
+                    : connection.getErrorStream();
+            if (body != null) {
+                body.close();
+            }
+            Log.d(LOGTAG, "warm(): " + uri.getHost() + " ready in "
+                    + (SystemClock.elapsedRealtime() - startMs) + "ms");
+        } catch (IOException e) {
+            // Not fatal, playback will connect on its own
+            Log.d(LOGTAG, "warm(): failed for " + uri.getHost() + ": " + e);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static final class WarmTask implements Runnable {
+
+        final String origin;
+        private final Uri uri;
+
+        WarmTask(String origin, Uri uri) {
+            this.origin = origin;
+            this.uri = uri;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lastWarmedMs) {
+                pending.remove(origin);
+                lastWarmedMs.put(origin, SystemClock.elapsedRealtime());
+            }
+            warm(uri);
+        }
+
+    }
+
+}
@@ -30,29 +30,32 @@ import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
 import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
 import com.google.android.exoplayer.dash.DashChunkSource;
+import com.google.android.exoplayer.dash.DashTrackSelector;
 import com.google.android.exoplayer.dash.DefaultDashTrackSelector;
 import com.google.android.exoplayer.dash.mpd.AdaptationSet;
 import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
-import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
 import com.google.android.exoplayer.dash.mpd.Period;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElement;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver.UtcTimingCallback;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
-import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
 import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 
 import java.io.IOException;
+import java.util.Set;
 
 /**
  * A {@link RendererBuilder} for DASH.
@@ -67,10 +70,6 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
   private static final int TEXT_BUFFER_SEGMENTS = 2;
   private static final int LIVE_EDGE_LATENCY_MS = 30000;
 
-  private static final int SECURITY_LEVEL_UNKNOWN = -1;
-  private static final int SECURITY_LEVEL_1 = 1;
-  private static final int SECURITY_LEVEL_3 = 3;
-
   private final Context context;
   private final String userAgent;
   private final String url;
@@ -105,9 +104,10 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
 
     private final Context context;
     private final String userAgent;
+    private final String url;
     private final MediaDrmCallback drmCallback;
     private final ExoPlayerWrapper player;
-    private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
+    private final SharedManifestFetcher<MediaPresentationDescription> manifestFetcher;
     private final UriDataSource manifestDataSource;
 
     private boolean canceled;
@@ -118,11 +118,14 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
         MediaDrmCallback drmCallback, ExoPlayerWrapper player) {
       this.context = context;
       this.userAgent = userAgent;
+      this.url = url;
       this.drmCallback = drmCallback;
       this.player = player;
-      MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
-      manifestDataSource = new DefaultUriDataSource(context, userAgent);
-      manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, parser);
+      // Only resolves UtcTiming elements, the shared fetcher has its own
+      manifestDataSource = new RevalidatingManifestDataSource(context, userAgent);
+      // Players of the same url share one manifest and its refreshes
+      manifestFetcher = SharedManifestFetcher.acquire(context, userAgent, url,
+          new CompactMpdParser(), player);
     }
 
     public void init() {
@@ -130,7 +133,10 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
     }
 
     public void cancel() {
-      canceled = true;
+      if (!canceled) {
+        canceled = true;
+        manifestFetcher.release(player);
+      }
     }
 
     @Override
@@ -140,7 +146,17 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
       }
 
       this.manifest = manifest;
+      // Fetch the start of the stream while the clock is resolved and the renderers are built
+      StartupPrefetcher.prefetch(context, userAgent, url, manifest);
       if (manifest.dynamic && manifest.utcTiming != null) {
+        // Skip the round trip if the server clock is known from an earlier start
+        Long cachedOffset = UtcTimingCache.getElapsedRealtimeOffset(context, manifestDataSource,
+            manifest.utcTiming, manifestFetcher.getManifestLoadCompleteTimestamp());
+        if (cachedOffset != null) {
+          elapsedRealtimeOffset = cachedOffset;
+          buildRenderers();
+          return;
+        }
         UtcTimingElementResolver.resolveTimingElement(manifestDataSource, manifest.utcTiming,
             manifestFetcher.getManifestLoadCompleteTimestamp(), this);
       } else {
@@ -164,6 +180,7 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
       }
 
       this.elapsedRealtimeOffset = elapsedRealtimeOffset;
+      UtcTimingCache.put(context, utcTiming, elapsedRealtimeOffset);
       buildRenderers();
     }
 
@@ -194,7 +211,7 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
 
       // Check drm support if necessary.
       boolean filterHdContent = false;
-      StreamingDrmSessionManager drmSessionManager = null;
+      DrmSessionManager drmSessionManager = null;
       if (hasContentProtection) {
         if (Util.SDK_INT < 18) {
           player.onRenderersError(
@@ -202,20 +219,44 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
           return;
         }
         try {
-          drmSessionManager = StreamingDrmSessionManager.newWidevineInstance(
-              player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), player);
-          filterHdContent = getWidevineSecurityLevel(drmSessionManager) != SECURITY_LEVEL_1;
+          // Reuses the session, and its keys, of an earlier prepare of this content, or the keys
+          // of a stored offline license
+          drmSessionManager = DrmSessionPool.acquire(context, player, url, drmCallback);
+          filterHdContent = DrmSessionPool.getWidevineSecurityLevel(drmSessionManager)
+              != DrmSessionPool.SECURITY_LEVEL_1;
         } catch (UnsupportedDrmException e) {
           player.onRenderersError(e);
           return;
         }
       }
 
+      // Stick to the downloaded representations, if any
+      DashTrackSelector videoTrackSelector =
+          DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent);
+      DashTrackSelector audioTrackSelector = DefaultDashTrackSelector.newAudioInstance();
+      DashTrackSelector textTrackSelector = DefaultDashTrackSelector.newTextInstance();
+      Download download = DownloadManager.findDownload(context, url);
+      if (download != null) {
+        Set<String> representationIds = download.getRepresentationIds();
+        videoTrackSelector = new OfflineDashTrackSelector(AdaptationSet.TYPE_VIDEO,
+            representationIds, videoTrackSelector);
+        audioTrackSelector = new OfflineDashTrackSelector(AdaptationSet.TYPE_AUDIO,
+            representationIds, audioTrackSelector);
+        textTrackSelector = new OfflineDashTrackSelector(AdaptationSet.TYPE_TEXT,
+            representationIds, textTrackSelector);
+      }
+
       // Build the video renderer.
-      DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource videoDataSource = newMediaDataSource(bandwidthMeter, ExoPlayerWrapper.TYPE_VIDEO);
+      FormatEvaluator videoFormatEvaluator = new AdaptiveEvaluator(bandwidthMeter);
+      Cache cache = MediaCache.getCache(context);
+      if (cache != null) {
+        // Prefer what is already cached over what the bandwidth estimate allows
+        videoFormatEvaluator = new CacheAwareFormatEvaluator(videoFormatEvaluator, manifestFetcher,
+            AdaptationSet.TYPE_VIDEO, cache);
+      }
       ChunkSource videoChunkSource = new DashChunkSource(manifestFetcher,
-          DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent),
-          videoDataSource, new AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS,
+          videoTrackSelector, videoDataSource, videoFormatEvaluator, LIVE_EDGE_LATENCY_MS,
           elapsedRealtimeOffset, mainHandler, player, ExoPlayerWrapper.TYPE_VIDEO);
       ChunkSampleSource videoSampleSource = new ChunkSampleSource(videoChunkSource, loadControl,
           VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
@@ -225,9 +266,9 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
           drmSessionManager, true, mainHandler, player, 50);
 
       // Build the audio renderer.
-      DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource audioDataSource = newMediaDataSource(bandwidthMeter, ExoPlayerWrapper.TYPE_AUDIO);
       ChunkSource audioChunkSource = new DashChunkSource(manifestFetcher,
-          DefaultDashTrackSelector.newAudioInstance(), audioDataSource, null, LIVE_EDGE_LATENCY_MS,
+          audioTrackSelector, audioDataSource, null, LIVE_EDGE_LATENCY_MS,
           elapsedRealtimeOffset, mainHandler, player, ExoPlayerWrapper.TYPE_AUDIO);
       ChunkSampleSource audioSampleSource = new ChunkSampleSource(audioChunkSource, loadControl,
           AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
@@ -237,9 +278,10 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
           AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
 
       // Build the text renderer.
-      DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource textDataSource = new DefaultUriDataSourceWrapper(context, bandwidthMeter,
+          userAgent, MediaCache.getCache(context), player.getDataSourceStats());
       ChunkSource textChunkSource = new DashChunkSource(manifestFetcher,
-          DefaultDashTrackSelector.newTextInstance(), textDataSource, null, LIVE_EDGE_LATENCY_MS,
+          textTrackSelector, textDataSource, null, LIVE_EDGE_LATENCY_MS,
           elapsedRealtimeOffset, mainHandler, player, ExoPlayerWrapper.TYPE_TEXT);
       ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource, loadControl,
           TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
@@ -255,10 +297,19 @@ public class DashRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
       player.onRenderers(renderers, bandwidthMeter);
     }
 
-    private static int getWidevineSecurityLevel(StreamingDrmSessionManager sessionManager) {
-      String securityLevelProperty = sessionManager.getPropertyString("securityLevel");
-      return securityLevelProperty.equals("L1") ? SECURITY_LEVEL_1 : securityLevelProperty
-          .equals("L3") ? SECURITY_LEVEL_3 : SECURITY_LEVEL_UNKNOWN;
+    private DataSource newMediaDataSource(final DefaultBandwidthMeter bandwidthMeter,
+        int sourceId) {
+      if (!DataSourceConfig.isHedgingEnabled()) {
+        return new DefaultUriDataSourceWrapper(context, bandwidthMeter, userAgent,
+            MediaCache.getCache(context), player.getDataSourceStats());
+      }
+      return new HedgingDataSource(new HedgingDataSource.UpstreamFactory() {
+        @Override
+        public DataSource createDataSource(TransferListener listener) {
+          return new DefaultUriDataSourceWrapper(context, listener, userAgent,
+              MediaCache.getCache(context), player.getDataSourceStats());
+        }
+      }, bandwidthMeter, player.getLoadTimeTracker(), sourceId);
     }
 
   }
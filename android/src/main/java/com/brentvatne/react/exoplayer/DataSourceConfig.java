@@ -0,0 +1,97 @@
+package com.brentvatne.react.exoplayer;
+
+/**
+ * Process-wide switches for optional data source behavior. Read when renderers are built, so
+ * changes apply to players prepared afterwards.
+ */
+public final class DataSourceConfig {
+
+    public static final int DEFAULT_READ_AHEAD_BYTES = 1024 * 1024;
+    public static final int DEFAULT_RESUME_RETRIES = 3;
+    public static final int DEFAULT_RESUME_BACKOFF_MS = 250;
+    public static final float DEFAULT_HEDGE_PERCENTILE = 0.9f;
+
+    private static volatile boolean readAheadEnabled = false;
+    private static volatile int readAheadBytes = DEFAULT_READ_AHEAD_BYTES;
+    private static volatile int parallelConnections = 1;
+    private static volatile int resumeRetries = DEFAULT_RESUME_RETRIES;
+    private static volatile int resumeBackoffMs = DEFAULT_RESUME_BACKOFF_MS;
+    private static volatile boolean hedgingEnabled = false;
+    private static volatile float hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+
+    private DataSourceConfig() {
+    }
+
+    /** Read progressive network streams ahead of the extractor on a background thread */
+    public static void setReadAheadEnabled(boolean enabled) {
+        readAheadEnabled = enabled;
+    }
+
+    public static boolean isReadAheadEnabled() {
+        return readAheadEnabled;
+    }
+
+    /** Size of the read-ahead buffer per player */
+    public static void setReadAheadBytes(int bytes) {
+        readAheadBytes = bytes;
+    }
+
+    public static int getReadAheadBytes() {
+        return readAheadBytes;
+    }
+
+    /**
+     * Number of connections used to download progressive network streams. Values above 1 fetch
+     * the range ahead of the read position in parallel chunks.
+     */
+    public static void setParallelConnections(int connections) {
+        parallelConnections = Math.max(1, connections);
+    }
+
+    public static int getParallelConnections() {
+        return parallelConnections;
+    }
+
+    /**
+     * Times a network read is resumed at the failed offset before the error reaches the player.
+     * 0 disables resuming.
+     */
+    public static void setResumeRetries(int retries) {
+        resumeRetries = Math.max(0, retries);
+    }
+
+    public static int getResumeRetries() {
+        return resumeRetries;
+    }
+
+    /** Delay before the first resume attempt, doubled for each further attempt */
+    public static void setResumeBackoffMs(int backoffMs) {
+        resumeBackoffMs = Math.max(0, backoffMs);
+    }
+
+    public static int getResumeBackoffMs() {
+        return resumeBackoffMs;
+    }
+
+    /**
+     * Start a second request for DASH and HLS media chunks that load slower than most recent
+     * chunks. See {@link HedgingDataSource}.
+     */
+    public static void setHedgingEnabled(boolean enabled) {
+        hedgingEnabled = enabled;
+    }
+
+    public static boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    /** Fraction of recent chunk loads a load may take longer than before it is hedged */
+    public static void setHedgePercentile(float percentile) {
+        hedgePercentile = Math.max(0.5f, Math.min(1f, percentile));
+    }
+
+    public static float getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.brentvatne.react.exoplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-request network timings and sizes, recorded by {@link InstrumentedDataSource}.
+ * <p/>
+ * Each player records its requests in one (see {@link ExoPlayerWrapper#getDataSourceStats()}),
+ * kept by its video view across the players it creates, and every request is also recorded in
+ * the process-wide instance returned by {@link #global()}, which also has the requests made for
+ * no player, e.g. by preloads and downloads. Times are in milliseconds.
+ */
+public final class DataSourceStats {
+
+    private static final DataSourceStats GLOBAL = new DataSourceStats();
+
+    /** Host name resolution, TCP and TLS setup, 0 when a pooled connection was reused */
+    public final Histogram connectMs = new Histogram();
+    /** From the request being sent to the response headers */
+    public final Histogram ttfbMs = new Histogram();
+    /** From the response headers to close */
+    public final Histogram transferMs = new Histogram();
+    public final Histogram bytes = new Histogram();
+    /** Bytes per second of transfers of at least {@link #MIN_THROUGHPUT_BYTES} */
+    public final Histogram bytesPerSecond = new Histogram();
+
+    /** Requests that failed to open */
+    public final AtomicLong openErrors = new AtomicLong();
+
+    /** Smaller transfers are dominated by latency and say little about throughput */
+    private static final long MIN_THROUGHPUT_BYTES = 64 * 1024;
+
+    public static DataSourceStats global() {
+        return GLOBAL;
+    }
+
+    /** Records a completed request. Pass -1 for phases that were not measured. */
+    public void record(long connectMs, long ttfbMs, long transferMs, long bytes) {
+        this.connectMs.record(connectMs);
+        this.ttfbMs.record(ttfbMs);
+        this.transferMs.record(transferMs);
+        this.bytes.record(bytes);
+        if (bytes >= MIN_THROUGHPUT_BYTES && transferMs > 0) {
+            bytesPerSecond.record(bytes * 1000 / transferMs);
+        }
+    }
+
+    public void reset() {
+        connectMs.reset();
+        ttfbMs.reset();
+        transferMs.reset();
+        bytes.reset();
+        bytesPerSecond.reset();
+        openErrors.set(0);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+/**
+ * Reads span files written by {@link EncryptingCacheDataSink}, decrypting in place.
+ * <p/>
+ * {@link com.google.android.exoplayer.upstream.cache.CacheDataSource} opens span files with the
+ * position in the file and the absolute position in the resource, which gives the position of the
+ * span, and the span file gives the nonce it was written with. Only the bytes actually read are
+ * decrypted, wherever the read starts.
+ */
+public final class DecryptingDataSource implements DataSource {
+
+    private final DataSource upstream;
+    private final CacheEncryption encryption;
+    private final Cipher cipher;
+
+    public DecryptingDataSource(DataSource upstream, CacheEncryption encryption) {
+        this.upstream = upstream;
+        this.encryption = encryption;
+        cipher = CacheEncryption.newCipher();
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        long length = upstream.open(dataSpec);
+        long spanPosition = dataSpec.absoluteStreamPosition - dataSpec.position;
+        byte[] nonce = CacheEncryption.readNonce(new File(dataSpec.uri.getPath()), dataSpec.key,
+                spanPosition);
+        encryption.init(cipher, Cipher.DECRYPT_MODE, dataSpec.key, spanPosition, nonce,
+                dataSpec.position);
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        int bytesRead = upstream.read(buffer, offset, readLength);
+        if (bytesRead > 0) {
+            try {
+                cipher.update(buffer, offset, bytesRead, buffer, offset);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        upstream.close();
+    }
+
+}
@@ -3,31 +3,89 @@ package com.brentvatne.react.exoplayer;
 import android.content.ContentResolver;
 import android.content.Context;
 
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.ByteArrayDataSource;
 import com.google.android.exoplayer.upstream.ContentDataSource;
+import com.google.android.exoplayer.upstream.DataSink;
+import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DataSpec;
-import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.FileDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
 import com.google.android.exoplayer.upstream.TransferListener;
 import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer.util.Assertions;
 
 import java.io.IOException;
 
 /**
- * Work-around to support file in /raw resources
+ * Work-around to support file in /raw resources.
+ * <p/>
+ * Local files, assets and raw resources are served from a memory mapping where possible (see
+ * {@link MappedFileDataSource}), falling back to stream reads. Network requests share pooled
+ * keep-alive connections (see {@link KeepAliveHttpDataSource}) and resume after a dropped
+ * connection (see {@link ResumingDataSource}). Their timings are recorded in
+ * {@link DataSourceStats}.
+ * <p/>
+ * When constructed with a {@link Cache}, network requests are served from and written to the
+ * cache (see {@link MediaCache}), encrypted if so configured. Manifest, playlist and key
+ * requests are not (see {@link MediaCache#isManifestRequest(DataSpec)}), unless
+ * {@link #setCachePlaylists(boolean)} says otherwise. Only bytes fetched from the network are
+ * reported to the {@link TransferListener}.
+ * <p/>
+ * Network requests for something the {@link StartupPrefetcher} is fetching wait for it, and
+ * playlists it fetched are served from memory. Other playlists are loaded through
+ * {@link SharedPlaylists}, shared with other players reloading them.
+ * <p/>
+ * Network requests whose bytes were all downloaded by the {@link DownloadManager} are read from
+ * its store, without network.
+ * <p/>
+ * {@link #cancel()} aborts a network request in progress, if the network source supports it.
  */
-public class DefaultUriDataSourceWrapper implements UriDataSource {
+public class DefaultUriDataSourceWrapper implements UriDataSource, CancelableDataSource {
 
     public DefaultUriDataSource wrapped;
 
+    /** The network source, behind the cache and the default source */
+    private final UriDataSource httpDataSource;
+
     private final UriDataSource rawResourceDataSource;
 
+    private final MappedFileDataSource mappedDataSource;
+
+    /** Null unless caching */
+    private final DataSource cacheDataSource;
+
+    /** Null if nothing was ever downloaded */
+    private final DownloadManager downloads;
+
+    /** Reads downloaded bytes, null without downloads */
+    private final DataSource offlineDataSource;
+
     private static final String SCHEME_RAW = ContentResolver.SCHEME_ANDROID_RESOURCE; //"android.resource";
 
+    /** Cache files are capped so large progressive streams are evicted piece by piece */
+    private static final long MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+
+    /** Source for the currently open request, null when closed */
+    private DataSource dataSource;
 
-    private boolean isRaw = false;
+    private String uri;
 
-    private boolean isClosed = true;
+    /** Cache key of the open request if it is cached and unbounded, to learn its length */
+    private String unboundedCacheKey;
+
+    private long readPosition;
+
+    private boolean cachePlaylists;
+
+    /** Player that live playlists are refreshed for, null if none */
+    private LiveRefreshScheduler.Watcher refreshWatcher;
+
+    private String refreshUserAgent;
 
 
     public DefaultUriDataSourceWrapper(Context context, String userAgent) {
@@ -38,59 +96,185 @@ public class DefaultUriDataSourceWrapper implements UriDataSource {
         this(context, listener, userAgent, false);
     }
 
+    public DefaultUriDataSourceWrapper(Context context, TransferListener listener, String userAgent,
+                                       Cache cache) {
+        this(context, listener, userAgent, cache, null);
+    }
+
+    /**
+     * @param stats Per-player stats that network requests are recorded in, in addition to
+     *              {@link DataSourceStats#global()}. May be null.
+     */
+    public DefaultUriDataSourceWrapper(Context context, TransferListener listener, String userAgent,
+                                       Cache cache, DataSourceStats stats) {
+        this(context, listener, newHttpDataSource(listener, userAgent, false, stats), cache);
+    }
 
     public DefaultUriDataSourceWrapper(Context context, TransferListener listener, String userAgent,
                                        boolean allowCrossProtocolRedirects) {
         this(context, listener,
-                new DefaultHttpDataSource(userAgent, null, listener,
-                        DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
-                        DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, allowCrossProtocolRedirects));
+                newHttpDataSource(listener, userAgent, allowCrossProtocolRedirects, null));
     }
 
     public DefaultUriDataSourceWrapper(Context context, TransferListener listener,
                                        UriDataSource httpDataSource) {
+        this(context, listener, httpDataSource, null);
+    }
+
+    public DefaultUriDataSourceWrapper(Context context, TransferListener listener,
+                                       UriDataSource httpDataSource, Cache cache) {
+        this.httpDataSource = httpDataSource;
         wrapped = new DefaultUriDataSource(context, listener, httpDataSource);
         rawResourceDataSource = new ContentDataSource(context, listener);
+        mappedDataSource = new MappedFileDataSource(context, listener);
+        CacheEncryption encryption = MediaCache.getEncryption(context);
+        // Nothing may be stored or read in the clear when encryption is on but unavailable
+        boolean storeDisabled = encryption == null && MediaCache.isEncrypted();
+        cacheDataSource = cache == null || storeDisabled ? null
+                : new CacheDataSource(cache, httpDataSource, newCacheReadDataSource(encryption),
+                        newCacheDataSink(cache, encryption), false, true, null);
+        downloads = storeDisabled ? null : DownloadManager.getIfExists(context);
+        // Read only, requests are only routed here when every byte is stored
+        offlineDataSource = downloads == null ? null
+                : new CacheDataSource(downloads.getCache(), httpDataSource,
+                        newCacheReadDataSource(encryption), null, false, false, null);
+    }
+
+    /**
+     * Whether manifests and playlists are cached like any other request. Only for stores of downloads,
+     * where a playlist must be kept with its segments.
+     */
+    void setCachePlaylists(boolean cachePlaylists) {
+        this.cachePlaylists = cachePlaylists;
+    }
+
+    /**
+     * Has the live playlists requested through this source refreshed in the background while
+     * watcher wants them, loaded with userAgent (see {@link SharedPlaylists}).
+     */
+    void setRefreshWatcher(LiveRefreshScheduler.Watcher watcher, String userAgent) {
+        refreshWatcher = watcher;
+        refreshUserAgent = userAgent;
+    }
+
+    private static DataSource newCacheReadDataSource(CacheEncryption encryption) {
+        return encryption == null ? new FileDataSource()
+                : new DecryptingDataSource(new FileDataSource(), encryption);
+    }
+
+    private static DataSink newCacheDataSink(Cache cache, CacheEncryption encryption) {
+        return encryption == null ? new CacheDataSink(cache, MAX_CACHE_FILE_SIZE)
+                : new EncryptingCacheDataSink(cache, MAX_CACHE_FILE_SIZE, encryption);
+    }
+
+    private static UriDataSource newHttpDataSource(TransferListener listener, String userAgent,
+                                                   boolean allowCrossProtocolRedirects,
+                                                   DataSourceStats stats) {
+        HttpDataSource httpDataSource = new KeepAliveHttpDataSource(userAgent, null, listener,
+                KeepAliveHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                KeepAliveHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS, allowCrossProtocolRedirects);
+        return new ResumingDataSource(new InstrumentedDataSource(httpDataSource, stats));
     }
 
 
     @Override
     public long open(DataSpec dataSpec) throws IOException {
-        Assertions.checkState(isClosed);
+        Assertions.checkState(dataSource == null);
         String scheme = dataSpec.uri.getScheme();
+        if (MappedFileDataSource.isLocal(dataSpec.uri)) {
+            uri = dataSpec.uri.toString();
+            try {
+                dataSource = mappedDataSource;
+                return mappedDataSource.open(dataSpec);
+            } catch (MappedFileDataSource.UnmappableSourceException e) {
+                // Compressed asset or resource, read it as a stream instead
+                dataSource = null;
+            }
+        }
+        DataSpec storedDataSpec = downloads == null ? null : downloads.getStoredDataSpec(dataSpec);
+        boolean network = MediaCache.isCacheable(dataSpec.uri);
+        boolean whole = dataSpec.position == 0 && dataSpec.length == C.LENGTH_UNBOUNDED;
+        boolean manifest = MediaCache.isManifestRequest(dataSpec);
+        byte[] prefetched = null;
+        if (network && storedDataSpec == null) {
+            StartupPrefetcher.awaitPending(dataSpec);
+            if (whole) {
+                prefetched = StartupPrefetcher.takePlaylist(dataSpec.uri.toString());
+            }
+        }
         if (SCHEME_RAW.equals(scheme)) {
-            isRaw = true;
-            return rawResourceDataSource.open(dataSpec);
+            dataSource = rawResourceDataSource;
+        } else if (storedDataSpec != null) {
+            dataSource = offlineDataSource;
+            dataSpec = storedDataSpec;
+        } else if (prefetched != null) {
+            dataSource = new ByteArrayDataSource(prefetched);
+        } else if (network && whole && manifest && !cachePlaylists) {
+            dataSource = new ByteArrayDataSource(SharedPlaylists.load(dataSpec, wrapped,
+                    refreshWatcher, refreshUserAgent));
+        } else if (cacheDataSource != null && network && (cachePlaylists || !manifest)) {
+            dataSource = cacheDataSource;
+            dataSpec = MediaCache.withKey(dataSpec);
+            if (dataSpec.length == C.LENGTH_UNBOUNDED) {
+                unboundedCacheKey = dataSpec.key;
+                readPosition = dataSpec.absoluteStreamPosition;
+            }
         } else {
-            return wrapped.open(dataSpec);
+            dataSource = wrapped;
         }
+        uri = dataSpec.uri.toString();
+        return dataSource.open(dataSpec);
     }
 
     @Override
     public int read(byte[] buffer, int offset, int readLength) throws IOException {
-        return isRaw ? rawResourceDataSource.read(buffer, offset, readLength) : wrapped.read(buffer, offset, readLength);
+        int bytesRead = dataSource.read(buffer, offset, readLength);
+        if (unboundedCacheKey != null) {
+            if (bytesRead == C.RESULT_END_OF_INPUT) {
+                MediaCache.setContentLength(unboundedCacheKey, readPosition);
+                unboundedCacheKey = null;
+            } else {
+                readPosition += bytesRead;
+            }
+        }
+        return bytesRead;
     }
 
     @Override
     public String getUri() {
-        // TODO return null if closed?
-        return isRaw ? rawResourceDataSource.getUri() : wrapped.getUri();
+        if (dataSource instanceof UriDataSource) {
+            return ((UriDataSource) dataSource).getUri();
+        }
+        return dataSource == null ? null : uri;
+    }
+
+    @Override
+    public void cancel() {
+        if (httpDataSource instanceof CancelableDataSource) {
+            ((CancelableDataSource) httpDataSource).cancel();
+        }
+    }
+
+    /**
+     * Drops the memory mapping kept for re-opens of a local source (see
+     * {@link MappedFileDataSource#release()}). Call once the source is no longer needed; it may
+     * still be open on another thread.
+     */
+    public void release() {
+        mappedDataSource.release();
     }
 
     @Override
     public void close() throws IOException {
-        if (isRaw) {
-            if (!isClosed) {
-                try {
-                    rawResourceDataSource.close();
-                } finally {
-                    isClosed = true;
-                }
+        if (dataSource != null) {
+            try {
+                dataSource.close();
+            } finally {
+                dataSource = null;
+                uri = null;
+                unboundedCacheKey = null;
             }
-        } else {
-            wrapped.close();
         }
-
     }
 
-}
\ No newline at end of file
+}
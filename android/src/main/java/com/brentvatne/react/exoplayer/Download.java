@@ -0,0 +1,166 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.C;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An offline download of an HLS or DASH source, as tracked by {@link DownloadManager}.
+ * <p/>
+ * Lists every request playback will make (manifests, keys, initialization data and segments) as
+ * a {@link Resource}, along with the rendition chosen. Guarded by its own monitor.
+ */
+public final class Download {
+
+    public static final int STATE_QUEUED = 0;
+    public static final int STATE_DOWNLOADING = 1;
+    public static final int STATE_PAUSED = 2;
+    public static final int STATE_COMPLETED = 3;
+    public static final int STATE_FAILED = 4;
+
+    /** One request, by uri and byte range */
+    static final class Resource {
+        final String uri;
+        final long position;
+        /** Requested length, or {@link C#LENGTH_UNBOUNDED} for the rest of the resource */
+        final long length;
+        /** Bytes stored once downloaded, -1 before */
+        long downloadedLength = -1;
+
+        Resource(String uri, long position, long length) {
+            this.uri = uri;
+            this.position = position;
+            this.length = length;
+        }
+
+        boolean isDone() {
+            return downloadedLength >= 0;
+        }
+    }
+
+    final String id;
+    final String uri;
+    final int contentType;
+    final int maxBitrate;
+
+    int state = STATE_QUEUED;
+    String error;
+    /** Whether resources have been listed from the manifests */
+    boolean planned;
+    /** Uri of the chosen HLS variant as written in the master playlist, null if none */
+    String variantUrl;
+    /** Format ids of the chosen DASH representations */
+    final Set<String> representationIds = new HashSet<>();
+    final List<Resource> resources = new ArrayList<>();
+
+    Download(String id, String uri, int contentType, int maxBitrate) {
+        this.id = id;
+        this.uri = uri;
+        this.contentType = contentType;
+        this.maxBitrate = maxBitrate;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    /** Fraction of resources downloaded, 0 until the manifests have been read */
+    public synchronized float getProgress() {
+        if (resources.isEmpty()) {
+            return 0;
+        }
+        int done = 0;
+        for (Resource resource : resources) {
+            if (resource.isDone()) {
+                done++;
+            }
+        }
+        return (float) done / resources.size();
+    }
+
+    /** Uri of the downloaded HLS variant as written in the master playlist, or null */
+    public synchronized String getVariantUrl() {
+        return variantUrl;
+    }
+
+    /** Format ids of the downloaded DASH representations */
+    public synchronized Set<String> getRepresentationIds() {
+        return new HashSet<>(representationIds);
+    }
+
+    public synchronized long getBytesDownloaded() {
+        long bytes = 0;
+        for (Resource resource : resources) {
+            if (resource.isDone()) {
+                bytes += resource.downloadedLength;
+            }
+        }
+        return bytes;
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("uri", uri);
+        json.put("contentType", contentType);
+        json.put("maxBitrate", maxBitrate);
+        json.put("state", state);
+        json.put("error", error);
+        json.put("planned", planned);
+        json.put("variantUrl", variantUrl);
+        json.put("representationIds", new JSONArray(representationIds));
+        JSONArray resourcesJson = new JSONArray();
+        for (Resource resource : resources) {
+            JSONArray resourceJson = new JSONArray();
+            resourceJson.put(resource.uri);
+            resourceJson.put(resource.position);
+            resourceJson.put(resource.length);
+            resourceJson.put(resource.downloadedLength);
+            resourcesJson.put(resourceJson);
+        }
+        json.put("resources", resourcesJson);
+        return json;
+    }
+
+    static Download fromJson(JSONObject json) throws JSONException {
+        Download download = new Download(json.getString("id"), json.getString("uri"),
+                json.getInt("contentType"), json.getInt("maxBitrate"));
+        download.state = json.getInt("state");
+        download.error = json.optString("error", null);
+        download.planned = json.getBoolean("planned");
+        download.variantUrl = json.optString("variantUrl", null);
+        JSONArray representationIds = json.getJSONArray("representationIds");
+        for (int i = 0; i < representationIds.length(); i++) {
+            download.representationIds.add(representationIds.getString(i));
+        }
+        JSONArray resources = json.getJSONArray("resources");
+        for (int i = 0; i < resources.length(); i++) {
+            JSONArray resourceJson = resources.getJSONArray(i);
+            Resource resource = new Resource(resourceJson.getString(0), resourceJson.getLong(1),
+                    resourceJson.getLong(2));
+            resource.downloadedLength = resourceJson.getLong(3);
+            download.resources.add(resource);
+        }
+        return download;
+    }
+
+}
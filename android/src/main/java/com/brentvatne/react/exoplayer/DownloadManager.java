@@ -0,0 +1,825 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.Variant;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.UriLoadable;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer.upstream.cache.CacheSpan;
+import com.google.android.exoplayer.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer.util.UriUtil;
+import com.google.android.exoplayer.util.Util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads HLS and DASH sources for offline playback.
+ * <p/>
+ * Manifests are read to list every request playback will make for one rendition, which are then
+ * fetched by several workers into a separate, never evicted cache. Each download is persisted as
+ * JSON after every few resources, so pending downloads continue where they left off after a
+ * process restart. Downloads run one at a time in the order started, and the combined throughput
+ * of all workers is capped by {@link #setMaxBytesPerSecond(long)}.
+ * <p/>
+ * Records are written on a background thread, in order, so the calling thread never waits for
+ * the disk. Removing a download stops its task and deletes its stored bytes once its workers have
+ * finished.
+ * <p/>
+ * {@link DefaultUriDataSourceWrapper} serves any request whose bytes are all stored here from
+ * disk, so the renderer builders play downloaded sources without network. They also pin track
+ * selection to the downloaded rendition (see {@link OfflineHlsTrackSelector} and
+ * {@link OfflineDashTrackSelector}).
+ */
+public final class DownloadManager {
+
+    private static final String LOGTAG = DownloadManager.class.getSimpleName();
+
+    public static final int DEFAULT_SEGMENT_CONCURRENCY = 3;
+
+    private static final String OFFLINE_DIR_NAME = "offline";
+    private static final String MEDIA_DIR_NAME = "media";
+    private static final String ENCRYPTED_MEDIA_DIR_NAME = "media_encrypted";
+    private static final String DOWNLOADS_DIR_NAME = "downloads";
+    private static final String RECORD_SUFFIX = ".json";
+
+    private static final int MAX_RESOURCE_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 2000;
+    private static final long SAVE_INTERVAL_MS = 2000;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private static DownloadManager instance;
+
+    private final Context context;
+    private final String userAgent;
+    private final File downloadsDir;
+    private final Cache cache;
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+    private final ExecutorService downloadExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService workerExecutor = Executors.newCachedThreadPool();
+    /** Writes and deletes records, one at a time in the order asked */
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor();
+
+    // Guarded by this
+    private final Map<String, Download> downloads = new LinkedHashMap<>();
+    private final Set<String> scheduled = new HashSet<>();
+    /** Tasks that started running, by download id */
+    private final Map<String, DownloadTask> running = new HashMap<>();
+    /** Stored length of resources downloaded to their end, by cache key */
+    private final Map<String, Long> contentLengths = new HashMap<>();
+    private int segmentConcurrency = DEFAULT_SEGMENT_CONCURRENCY;
+
+    private DownloadManager(Context context) {
+        this.context = context;
+        userAgent = Util.getUserAgent(context, "ReactVideo");
+        File offlineDir = getOfflineDir(context);
+        downloadsDir = new File(offlineDir, DOWNLOADS_DIR_NAME);
+        downloadsDir.mkdirs();
+        File mediaDir = new File(offlineDir,
+                MediaCache.isEncrypted() ? ENCRYPTED_MEDIA_DIR_NAME : MEDIA_DIR_NAME);
+        File indexFile = new File(mediaDir.getPath() + MediaCache.INDEX_FILE_SUFFIX);
+        CacheEncryption encryption = MediaCache.getEncryption(context);
+        boolean storeLost = encryption != null && encryption.isKeyCreated();
+        if (storeLost) {
+            // Encrypted with a lost key, unreadable
+            MediaCache.deleteContents(mediaDir);
+            MediaCache.deleteContents(CacheEncryption.getNonceDir(mediaDir));
+            indexFile.delete();
+        }
+        CacheEvictor evictor = new NoOpCacheEvictor();
+        if (encryption != null) {
+            evictor = CacheEncryption.withNonceRemoval(evictor);
+        }
+        // Indexed so that playback does not wait for the directory scan
+        cache = new IndexedCache(mediaDir, indexFile, evictor);
+        loadDownloads(storeLost);
+    }
+
+    /** Returns the manager, loading persisted downloads and continuing pending ones on first use */
+    public static synchronized DownloadManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new DownloadManager(context.getApplicationContext());
+            instance.resumePending();
+        }
+        return instance;
+    }
+
+    /** Like {@link #getInstance(Context)}, but returns null if nothing was ever downloaded */
+    public static synchronized DownloadManager getIfExists(Context context) {
+        if (instance == null && !getOfflineDir(context).exists()) {
+            return null;
+        }
+        return getInstance(context);
+    }
+
+    /** Returns the download of uri, in any state, or null. Does not create the manager. */
+    public static Download findDownload(Context context, String uri) {
+        DownloadManager manager = getIfExists(context);
+        return manager == null ? null : manager.findByUri(uri);
+    }
+
+    private static File getOfflineDir(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), OFFLINE_DIR_NAME);
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    /** Caps the combined download throughput. 0 removes the cap. */
+    public void setMaxBytesPerSecond(long bytesPerSecond) {
+        bandwidthLimiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /** Number of segments fetched at once, applies from the next download started */
+    public synchronized void setSegmentConcurrency(int concurrency) {
+        segmentConcurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Starts downloading uriString, or resumes the download with this id.
+     *
+     * @param type       Overriding file extension used to infer the content type. May be null.
+     * @param maxBitrate Highest video bitrate to pick, {@link Integer#MAX_VALUE} for the best.
+     */
+    public synchronized void start(String id, String uriString, String type, int maxBitrate) {
+        Download download = downloads.get(id);
+        if (download == null) {
+            Uri uri = Uri.parse(uriString);
+            download = new Download(id, uriString, ExoPlayerUtil.inferContentType(uri, type),
+                    maxBitrate);
+            downloads.put(id, download);
+        }
+        resume(id);
+    }
+
+    public synchronized void pause(String id) {
+        Download download = downloads.get(id);
+        if (download == null) {
+            return;
+        }
+        synchronized (download) {
+            if (download.state == Download.STATE_QUEUED
+                    || download.state == Download.STATE_DOWNLOADING) {
+                download.state = Download.STATE_PAUSED;
+            }
+        }
+        save(download);
+    }
+
+    public synchronized void resume(String id) {
+        Download download = downloads.get(id);
+        if (download == null) {
+            return;
+        }
+        synchronized (download) {
+            if (download.state == Download.STATE_COMPLETED) {
+                return;
+            }
+            download.state = Download.STATE_QUEUED;
+            download.error = null;
+        }
+        save(download);
+        schedule(download);
+    }
+
+    /**
+     * Stops the download and deletes everything it stored. Stored bytes are deleted in the
+     * background, once the workers of the download have finished.
+     */
+    public void remove(String id) {
+        final Download download;
+        final DownloadTask task;
+        synchronized (this) {
+            download = downloads.remove(id);
+            if (download == null) {
+                return;
+            }
+            synchronized (download) {
+                // Makes workers stop
+                download.state = Download.STATE_PAUSED;
+            }
+            // A task that starts later sees the state and returns without writing
+            task = running.get(id);
+            final File file = new File(downloadsDir, getRecordName(id));
+            // After any write of the record still queued
+            saveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    file.delete();
+                }
+            });
+        }
+        workerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (task != null) {
+                    task.awaitFinished();
+                }
+                removeStored(download);
+            }
+        });
+    }
+
+    private void removeStored(Download download) {
+        Set<String> keys = new HashSet<>();
+        synchronized (download) {
+            for (Download.Resource resource : download.resources) {
+                keys.add(MediaCache.getKey(Uri.parse(resource.uri)));
+            }
+        }
+        synchronized (this) {
+            // Keep what other downloads still use
+            for (Download other : downloads.values()) {
+                synchronized (other) {
+                    for (Download.Resource resource : other.resources) {
+                        keys.remove(MediaCache.getKey(Uri.parse(resource.uri)));
+                    }
+                }
+            }
+            for (String key : keys) {
+                contentLengths.remove(key);
+            }
+        }
+        for (String key : keys) {
+            NavigableSet<CacheSpan> spans = cache.getCachedSpans(key);
+            if (spans != null) {
+                for (CacheSpan span : spans) {
+                    cache.removeSpan(span);
+                }
+            }
+        }
+    }
+
+    public synchronized List<Download> getDownloads() {
+        return new ArrayList<>(downloads.values());
+    }
+
+    /** Returns the download of uri, in any state, or null */
+    public synchronized Download findByUri(String uri) {
+        for (Download download : downloads.values()) {
+            if (download.uri.equals(uri)) {
+                return download;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns dataSpec with a bounded length if all its bytes are stored, otherwise null.
+     * Unbounded requests are only served for resources that were downloaded to their end.
+     */
+    public DataSpec getStoredDataSpec(DataSpec dataSpec) {
+        if (!MediaCache.isCacheable(dataSpec.uri)) {
+            return null;
+        }
+        String key = MediaCache.getKey(dataSpec.uri);
+        long length = dataSpec.length;
+        if (length == C.LENGTH_UNBOUNDED) {
+            Long contentLength;
+            synchronized (this) {
+                contentLength = contentLengths.get(key);
+            }
+            if (contentLength == null || contentLength <= dataSpec.position) {
+                return null;
+            }
+            length = contentLength - dataSpec.position;
+        }
+        // Only waits for the directory scan if the index knows about the bytes
+        if (length > 0 && !cache.isCached(key, dataSpec.position, length)) {
+            return null;
+        }
+        return new DataSpec(dataSpec.uri, dataSpec.postBody, dataSpec.absoluteStreamPosition,
+                dataSpec.position, length, key, dataSpec.flags);
+    }
+
+    /** Whether the bytes are stored, from the spans. Waits for the directory scan. */
+    private boolean isStored(String key, long position, long length) {
+        NavigableSet<CacheSpan> spans = cache.getCachedSpans(key);
+        if (spans == null) {
+            return false;
+        }
+        long end = position + length;
+        long covered = position;
+        // Spans are ordered by position
+        for (CacheSpan span : spans) {
+            if (span.position > covered) {
+                break;
+            }
+            covered = Math.max(covered, span.position + span.length);
+            if (covered >= end) {
+                return true;
+            }
+        }
+        return length == 0;
+    }
+
+    private synchronized void resumePending() {
+        for (Download download : downloads.values()) {
+            int state = download.getState();
+            if (state == Download.STATE_QUEUED || state == Download.STATE_DOWNLOADING) {
+                schedule(download);
+            }
+        }
+    }
+
+    private synchronized void schedule(final Download download) {
+        if (!scheduled.add(download.id)) {
+            return;
+        }
+        final int concurrency = segmentConcurrency;
+        downloadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                DownloadTask task = new DownloadTask(download, concurrency);
+                synchronized (DownloadManager.this) {
+                    scheduled.remove(download.id);
+                    running.put(download.id, task);
+                }
+                try {
+                    task.run();
+                } finally {
+                    synchronized (DownloadManager.this) {
+                        running.remove(download.id);
+                    }
+                    task.finished.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the records. If storeLost, the stored bytes are gone, so all progress is reset and
+     * completed downloads are marked failed.
+     */
+    private void loadDownloads(boolean storeLost) {
+        File[] files = downloadsDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(RECORD_SUFFIX)) {
+                continue;
+            }
+            try {
+                Download download = Download.fromJson(new JSONObject(AtomicFiles.read(file)));
+                downloads.put(download.id, download);
+                if (storeLost) {
+                    for (Download.Resource resource : download.resources) {
+                        resource.downloadedLength = -1;
+                    }
+                    if (download.state == Download.STATE_COMPLETED) {
+                        download.state = Download.STATE_FAILED;
+                        download.error = "Stored data was lost";
+                    }
+                    save(download);
+                }
+                for (Download.Resource resource : download.resources) {
+                    onResourceDone(resource);
+                }
+            } catch (IOException | JSONException e) {
+                Log.e(LOGTAG, "loadDownloads(): dropping unreadable " + file, e);
+                file.delete();
+            }
+        }
+    }
+
+    private synchronized void onResourceDone(Download.Resource resource) {
+        if (resource.isDone() && resource.length == C.LENGTH_UNBOUNDED) {
+            contentLengths.put(MediaCache.getKey(Uri.parse(resource.uri)),
+                    resource.position + resource.downloadedLength);
+        }
+    }
+
+    /** Writes the record of download in the background, unless it was removed */
+    private void save(final Download download) {
+        final File file;
+        final String json;
+        synchronized (this) {
+            if (downloads.get(download.id) != download) {
+                return;
+            }
+            file = new File(downloadsDir, getRecordName(download.id));
+            try {
+                json = download.toJson().toString();
+            } catch (JSONException e) {
+                Log.e(LOGTAG, "save(): failed for " + download.id, e);
+                return;
+            }
+            // Queued with the lock held, so a removal queues its delete after this
+            saveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        AtomicFiles.write(file, json);
+                    } catch (IOException e) {
+                        Log.e(LOGTAG, "save(): failed for " + file, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static String getRecordName(String id) {
+        return Uri.encode(id) + RECORD_SUFFIX;
+    }
+
+    /** Lists and fetches the resources of one download */
+    private final class DownloadTask implements Runnable {
+
+        private final Download download;
+        private final int concurrency;
+        private final AtomicInteger nextResource = new AtomicInteger();
+        /** Counted down once run returned, its workers are done by then */
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile IOException failure;
+        private long lastSaveMs;
+
+        DownloadTask(Download download, int concurrency) {
+            this.download = download;
+            this.concurrency = concurrency;
+        }
+
+        @Override
+        public void run() {
+            synchronized (download) {
+                if (download.state != Download.STATE_QUEUED) {
+                    return;
+                }
+                download.state = Download.STATE_DOWNLOADING;
+            }
+            save(download);
+            try {
+                if (!download.planned) {
+                    plan(newDataSource());
+                }
+                fetchAll();
+            } catch (IOException e) {
+                failure = e;
+            }
+            synchronized (download) {
+                if (download.state == Download.STATE_DOWNLOADING) {
+                    if (failure != null) {
+                        Log.w(LOGTAG, "run(): " + download.id + " failed: " + failure);
+                        download.state = Download.STATE_FAILED;
+                        download.error = failure.toString();
+                    } else {
+                        download.state = Download.STATE_COMPLETED;
+                    }
+                }
+            }
+            save(download);
+        }
+
+        /** Waits for the task to finish, ignoring interrupts */
+        void awaitFinished() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean isActive() {
+            synchronized (download) {
+                return download.state == Download.STATE_DOWNLOADING && failure == null;
+            }
+        }
+
+        private UriDataSource newDataSource() {
+            DefaultUriDataSourceWrapper dataSource =
+                    new DefaultUriDataSourceWrapper(context, null, userAgent, cache);
+            // Playlists are played back from the store like segments
+            dataSource.setCachePlaylists(true);
+            return dataSource;
+        }
+
+        private void fetchAll() throws IOException {
+            int workerCount;
+            synchronized (download) {
+                workerCount = Math.min(concurrency, download.resources.size());
+            }
+            final CountDownLatch done = new CountDownLatch(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                workerExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            work(newDataSource());
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        private void work(UriDataSource dataSource) {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            while (isActive()) {
+                int index = nextResource.getAndIncrement();
+                Download.Resource resource;
+                synchronized (download) {
+                    if (index >= download.resources.size()) {
+                        return;
+                    }
+                    resource = download.resources.get(index);
+                    if (resource.isDone()) {
+                        continue;
+                    }
+                }
+                try {
+                    fetchWithRetries(dataSource, resource, buffer);
+                } catch (IOException e) {
+                    failure = e;
+                    return;
+                }
+                maybeSave();
+            }
+        }
+
+        private void fetchWithRetries(UriDataSource dataSource, Download.Resource resource,
+                                      byte[] buffer) throws IOException {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    fetch(dataSource, resource, buffer);
+                    return;
+                } catch (IOException e) {
+                    if (attempt == MAX_RESOURCE_ATTEMPTS || !isActive()) {
+                        throw e;
+                    }
+                    Log.d(LOGTAG, "fetchWithRetries(): retrying " + resource.uri + ": " + e);
+                    SystemClock.sleep(RETRY_DELAY_MS * attempt);
+                }
+            }
+        }
+
+        /** Reads resource through the offline cache. Leaves it not done if the task stopped. */
+        private void fetch(UriDataSource dataSource, Download.Resource resource, byte[] buffer)
+                throws IOException {
+            Uri uri = Uri.parse(resource.uri);
+            long bytesRead = 0;
+            try {
+                dataSource.open(new DataSpec(uri, resource.position, resource.length, null));
+                int read;
+                while ((read = dataSource.read(buffer, 0, buffer.length))
+                        != C.RESULT_END_OF_INPUT) {
+                    bytesRead += read;
+                    bandwidthLimiter.onBytesRead(read);
+                    if (!isActive()) {
+                        return;
+                    }
+                }
+            } finally {
+                dataSource.close();
+            }
+            // The cache skips writes on errors such as a full disk, so check what was stored
+            if (!isStored(MediaCache.getKey(uri), resource.position, bytesRead)) {
+                throw new IOException("Failed to store " + resource.uri);
+            }
+            synchronized (download) {
+                resource.downloadedLength = bytesRead;
+            }
+            onResourceDone(resource);
+        }
+
+        private void maybeSave() {
+            long nowMs = SystemClock.elapsedRealtime();
+            synchronized (this) {
+                if (nowMs - lastSaveMs < SAVE_INTERVAL_MS) {
+                    return;
+                }
+                lastSaveMs = nowMs;
+            }
+            save(download);
+        }
+
+        /** Fetches the manifests and lists every resource of the chosen rendition */
+        private void plan(UriDataSource dataSource) throws IOException {
+            List<Download.Resource> resources = new ArrayList<>();
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            switch (download.contentType) {
+                case Util.TYPE_HLS:
+                    planHls(dataSource, resources, buffer);
+                    break;
+                case Util.TYPE_DASH:
+                    planDash(dataSource, resources, buffer);
+                    break;
+                default:
+                    // Progressive, a single resource
+                    resources.add(new Download.Resource(download.uri, 0, C.LENGTH_UNBOUNDED));
+                    break;
+            }
+            synchronized (download) {
+                download.resources.addAll(resources);
+                download.planned = true;
+            }
+            save(download);
+        }
+
+        private void planHls(UriDataSource dataSource, List<Download.Resource> resources,
+                             byte[] buffer) throws IOException {
+            HlsPlaylist playlist = fetchManifest(dataSource, download.uri,
+                    new CompactHlsPlaylistParser(), resources, buffer);
+            if (playlist instanceof HlsMasterPlaylist) {
+                Variant variant = selectVariant(((HlsMasterPlaylist) playlist).variants);
+                if (variant == null) {
+                    throw new IOException("No variants");
+                }
+                synchronized (download) {
+                    download.variantUrl = variant.url;
+                }
+                playlist = fetchManifest(dataSource, UriUtil.resolve(playlist.baseUri, variant.url),
+                        new CompactHlsPlaylistParser(), resources, buffer);
+            }
+            if (!(playlist instanceof HlsMediaPlaylist) || ((HlsMediaPlaylist) playlist).live) {
+                throw new IOException("Live playlists can not be downloaded");
+            }
+            HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) playlist;
+            Set<String> keyUris = new HashSet<>();
+            for (HlsMediaPlaylist.Segment segment : mediaPlaylist.segments) {
+                if (segment.isEncrypted) {
+                    String keyUri = UriUtil.resolve(mediaPlaylist.baseUri, segment.encryptionKeyUri);
+                    if (keyUris.add(keyUri)) {
+                        resources.add(new Download.Resource(keyUri, 0, C.LENGTH_UNBOUNDED));
+                    }
+                }
+                // Same ranges as HlsChunkSource requests
+                resources.add(new Download.Resource(
+                        UriUtil.resolve(mediaPlaylist.baseUri, segment.url),
+                        segment.byterangeOffset, segment.byterangeLength));
+            }
+        }
+
+        private Variant selectVariant(List<Variant> variants) {
+            Variant best = null;
+            for (Variant variant : variants) {
+                int bitrate = variant.format.bitrate;
+                if (bitrate > download.maxBitrate) {
+                    continue;
+                }
+                if (best == null || bitrate > best.format.bitrate) {
+                    best = variant;
+                }
+            }
+            // Nothing fits the cap, take the smallest
+            if (best == null) {
+                for (Variant variant : variants) {
+                    if (best == null || variant.format.bitrate < best.format.bitrate) {
+                        best = variant;
+                    }
+                }
+            }
+            return best;
+        }
+
+        private void planDash(UriDataSource dataSource, List<Download.Resource> resources,
+                              byte[] buffer) throws IOException {
+            MediaPresentationDescription manifest = fetchManifest(dataSource, download.uri,
+                    new CompactMpdParser(), resources, buffer);
+            if (manifest.dynamic) {
+                throw new IOException("Live manifests can not be downloaded");
+            }
+            for (int periodIndex = 0; periodIndex < manifest.getPeriodCount(); periodIndex++) {
+                Period period = manifest.getPeriod(periodIndex);
+                long periodDurationMs = manifest.getPeriodDuration(periodIndex);
+                long periodDurationUs = periodDurationMs == -1 ? -1 : periodDurationMs * 1000;
+                for (AdaptationSet adaptationSet : period.adaptationSets) {
+                    Representation representation = selectRepresentation(adaptationSet);
+                    if (representation == null) {
+                        continue;
+                    }
+                    synchronized (download) {
+                        download.representationIds.add(representation.format.id);
+                    }
+                    planRepresentation(representation, periodDurationUs, resources);
+                }
+            }
+        }
+
+        /** Highest bitrate within the cap for video, highest for audio, first for text */
+        private Representation selectRepresentation(AdaptationSet adaptationSet) {
+            List<Representation> representations = adaptationSet.representations;
+            if (representations.isEmpty() || adaptationSet.type == AdaptationSet.TYPE_UNKNOWN) {
+                return null;
+            }
+            if (adaptationSet.type == AdaptationSet.TYPE_TEXT) {
+                return representations.get(0);
+            }
+            int maxBitrate = adaptationSet.type == AdaptationSet.TYPE_VIDEO
+                    ? download.maxBitrate : Integer.MAX_VALUE;
+            Representation best = null;
+            Representation smallest = null;
+            for (Representation representation : representations) {
+                int bitrate = representation.format.bitrate;
+                if (bitrate <= maxBitrate && (best == null || bitrate > best.format.bitrate)) {
+                    best = representation;
+                }
+                if (smallest == null || bitrate < smallest.format.bitrate) {
+                    smallest = representation;
+                }
+            }
+            return best != null ? best : smallest;
+        }
+
+        private void planRepresentation(Representation representation, long periodDurationUs,
+                                        List<Download.Resource> resources) throws IOException {
+            RangedUri initializationUri = representation.getInitializationUri();
+            if (initializationUri != null) {
+                resources.add(toResource(initializationUri));
+            }
+            DashSegmentIndex index = representation.getIndex();
+            if (index == null) {
+                // Single segment indexed by a sidx box, take the whole file
+                RangedUri indexUri = representation.getIndexUri();
+                if (indexUri == null) {
+                    throw new IOException("No segments for " + representation.format.id);
+                }
+                resources.add(new Download.Resource(indexUri.getUri().toString(), 0,
+                        C.LENGTH_UNBOUNDED));
+                return;
+            }
+            int firstSegmentNum = index.getFirstSegmentNum();
+            int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+            if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED) {
+                throw new IOException("Unbounded segment index for " + representation.format.id);
+            }
+            for (int segmentNum = firstSegmentNum; segmentNum <= lastSegmentNum; segmentNum++) {
+                resources.add(toResource(index.getSegmentUrl(segmentNum)));
+            }
+        }
+
+        private Download.Resource toResource(RangedUri rangedUri) {
+            return new Download.Resource(rangedUri.getUri().toString(), rangedUri.start,
+                    rangedUri.length);
+        }
+
+        /** Downloads a manifest as a resource, then parses the stored copy */
+        private <T> T fetchManifest(UriDataSource dataSource, String uri,
+                                    UriLoadable.Parser<T> parser,
+                                    List<Download.Resource> resources, byte[] buffer)
+                throws IOException {
+            Download.Resource resource = new Download.Resource(uri, 0, C.LENGTH_UNBOUNDED);
+            fetchWithRetries(dataSource, resource, buffer);
+            if (!resource.isDone()) {
+                throw new InterruptedIOException("Stopped");
+            }
+            resources.add(resource);
+            UriLoadable<T> loadable = new UriLoadable<>(uri, dataSource, parser);
+            try {
+                loadable.load();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            return loadable.getResult();
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.brentvatne.react.exoplayer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCrypto;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.drm.UnsupportedDrmException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps Widevine sessions, and the keys loaded into them, open across prepares of a player.
+ * <p/>
+ * Renderers close their DRM session whenever they are disabled, which for
+ * {@link StreamingDrmSessionManager} means closing the MediaDrm session and fetching a license
+ * again on the next open. Sessions handed out here stay open for {@link #KEEP_OPEN_MS} after the
+ * last renderer closes them, so a re-prepare of the same player, e.g. after a playback error,
+ * finds its keys loaded. A session is tied to the playback thread of its player, so sessions are
+ * pooled per player and content, and closed as soon as renderers let go once the player is
+ * released (see {@link #release(Looper)}). Anything that creates a new player, like going to the
+ * background, changing the source or the audio capabilities, starts from a new session; those
+ * are covered by the stored offline license, if any.
+ * <p/>
+ * Sessions are opened with the keys of a stored offline license when there is one, see
+ * {@link OfflineDrmSessionManager}. The Widevine security level is queried once per process.
+ */
+@TargetApi(18)
+public final class DrmSessionPool {
+
+    private static final String LOGTAG = DrmSessionPool.class.getSimpleName();
+
+    public static final int SECURITY_LEVEL_UNKNOWN = -1;
+    public static final int SECURITY_LEVEL_1 = 1;
+    public static final int SECURITY_LEVEL_3 = 3;
+
+    /** How long a session no renderer uses is kept open */
+    private static final long KEEP_OPEN_MS = 60000;
+
+    /** Sessions by playback thread and content id. Guarded by the class. */
+    private static final Map<Looper, Map<String, PooledSession>> sessions = new HashMap<>();
+
+    /** Guarded by the class */
+    private static int securityLevel = SECURITY_LEVEL_UNKNOWN;
+    private static boolean securityLevelKnown;
+
+    private DrmSessionPool() {
+    }
+
+    /**
+     * Returns the session manager for contentId played by player, reusing the open session of an
+     * earlier prepare if there is one.
+     */
+    public static synchronized DrmSessionManager acquire(Context context, ExoPlayerWrapper player,
+            String contentId, MediaDrmCallback drmCallback) throws UnsupportedDrmException {
+        Looper looper = player.getPlaybackLooper();
+        Map<String, PooledSession> playerSessions = sessions.get(looper);
+        if (playerSessions == null) {
+            playerSessions = new HashMap<>();
+            sessions.put(looper, playerSessions);
+        }
+        PooledSession session = playerSessions.get(contentId);
+        if (session == null) {
+            StreamingDrmSessionManager streamingManager = StreamingDrmSessionManager
+                    .newWidevineInstance(looper, drmCallback, null, player.getMainHandler(), player);
+            session = new PooledSession(new OfflineDrmSessionManager(context, contentId,
+                    drmCallback, streamingManager), looper);
+            playerSessions.put(contentId, session);
+        } else {
+            Log.d(LOGTAG, "acquire(): reusing session for " + contentId);
+        }
+        return session;
+    }
+
+    /** Widevine security level of the device, one of the SECURITY_LEVEL_* constants */
+    public static synchronized int getWidevineSecurityLevel(DrmSessionManager sessionManager) {
+        if (!securityLevelKnown && sessionManager instanceof PooledSession) {
+            String property = ((PooledSession) sessionManager).manager
+                    .streamingManager.getPropertyString("securityLevel");
+            securityLevel = "L1".equals(property) ? SECURITY_LEVEL_1
+                    : "L3".equals(property) ? SECURITY_LEVEL_3 : SECURITY_LEVEL_UNKNOWN;
+            securityLevelKnown = true;
+        }
+        return securityLevel;
+    }
+
+    /**
+     * Stops keeping the sessions of the player whose playback thread is looper. They close when
+     * its renderers close them. Call before releasing the player.
+     */
+    public static void release(Looper looper) {
+        Map<String, PooledSession> playerSessions;
+        synchronized (DrmSessionPool.class) {
+            playerSessions = sessions.remove(looper);
+        }
+        if (playerSessions == null) {
+            return;
+        }
+        for (PooledSession session : playerSessions.values()) {
+            session.release();
+        }
+    }
+
+    /** A session manager whose close is deferred while it may be opened again */
+    private static final class PooledSession implements DrmSessionManager {
+
+        final OfflineDrmSessionManager manager;
+
+        private final Handler handler;
+        /** Renderers that have the session open. Accessed on the playback thread. */
+        private int openCount;
+        /** Whether the session of manager is open. Accessed on the playback thread. */
+        private boolean managerOpen;
+        private volatile boolean released;
+
+        private final Runnable closeRunnable = new Runnable() {
+            @Override
+            public void run() {
+                maybeCloseManager();
+            }
+        };
+
+        PooledSession(OfflineDrmSessionManager manager, Looper looper) {
+            this.manager = manager;
+            handler = new Handler(looper);
+        }
+
+        @Override
+        public void open(DrmInitData drmInitData) {
+            handler.removeCallbacks(closeRunnable);
+            openCount++;
+            if (managerOpen && openCount == 1 && manager.getState() == STATE_ERROR) {
+                // Do not hold on to a failed session, try afresh
+                manager.close();
+                managerOpen = false;
+            }
+            if (!managerOpen) {
+                manager.open(drmInitData);
+                managerOpen = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (--openCount > 0) {
+                return;
+            }
+            if (released) {
+                maybeCloseManager();
+            } else {
+                handler.postDelayed(closeRunnable, KEEP_OPEN_MS);
+            }
+        }
+
+        void release() {
+            released = true;
+            handler.post(closeRunnable);
+        }
+
+        private void maybeCloseManager() {
+            if (managerOpen && openCount == 0) {
+                manager.close();
+                managerOpen = false;
+            }
+        }
+
+        @Override
+        public int getState() {
+            return manager.getState();
+        }
+
+        @Override
+        public MediaCrypto getMediaCrypto() {
+            return manager.getMediaCrypto();
+        }
+
+        @Override
+        public boolean requiresSecureDecoderComponent(String mimeType) {
+            return manager.requiresSecureDecoderComponent(mimeType);
+        }
+
+        @Override
+        public Exception getError() {
+            return manager.getError();
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.upstream.DataSink;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheDataSink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+/**
+ * {@link CacheDataSink} that encrypts span files (see {@link CacheEncryption}).
+ * <p/>
+ * Splits writes into span files of at most maxCacheFileSize bytes the same way CacheDataSink does,
+ * each encrypted with the key of its own span and a new nonce.
+ */
+public final class EncryptingCacheDataSink implements DataSink {
+
+    private final Cache cache;
+    private final long maxCacheFileSize;
+    private final CacheEncryption encryption;
+    private final Cipher cipher;
+
+    private DataSpec dataSpec;
+    private File file;
+    private FileOutputStream outputStream;
+    private long outputStreamBytesWritten;
+    private long dataSpecBytesWritten;
+    private byte[] encryptBuffer;
+
+    public EncryptingCacheDataSink(Cache cache, long maxCacheFileSize,
+                                   CacheEncryption encryption) {
+        this.cache = cache;
+        this.maxCacheFileSize = maxCacheFileSize;
+        this.encryption = encryption;
+        cipher = CacheEncryption.newCipher();
+    }
+
+    @Override
+    public DataSink open(DataSpec dataSpec) throws IOException {
+        this.dataSpec = dataSpec;
+        dataSpecBytesWritten = 0;
+        openNextOutputStream();
+        return this;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        int bytesWritten = 0;
+        while (bytesWritten < length) {
+            if (outputStreamBytesWritten == maxCacheFileSize) {
+                closeCurrentOutputStream();
+                openNextOutputStream();
+            }
+            int bytesToWrite = (int) Math.min(length - bytesWritten,
+                    maxCacheFileSize - outputStreamBytesWritten);
+            if (encryptBuffer == null || encryptBuffer.length < bytesToWrite) {
+                encryptBuffer = new byte[bytesToWrite];
+            }
+            try {
+                cipher.update(buffer, offset + bytesWritten, bytesToWrite, encryptBuffer, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            outputStream.write(encryptBuffer, 0, bytesToWrite);
+            bytesWritten += bytesToWrite;
+            outputStreamBytesWritten += bytesToWrite;
+            dataSpecBytesWritten += bytesToWrite;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeCurrentOutputStream();
+    }
+
+    private void openNextOutputStream() throws IOException {
+        long spanPosition = dataSpec.absoluteStreamPosition + dataSpecBytesWritten;
+        file = cache.startFile(dataSpec.key, spanPosition,
+                Math.min(dataSpec.length - dataSpecBytesWritten, maxCacheFileSize));
+        // A fresh nonce for every write, stored before any ciphertext
+        byte[] nonce = encryption.newNonce();
+        CacheEncryption.writeNonce(file, dataSpec.key, spanPosition, nonce);
+        outputStream = new FileOutputStream(file);
+        outputStreamBytesWritten = 0;
+        encryption.init(cipher, Cipher.ENCRYPT_MODE, dataSpec.key, spanPosition, nonce, 0);
+    }
+
+    private void closeCurrentOutputStream() throws IOException {
+        if (outputStream == null) {
+            return;
+        }
+        try {
+            outputStream.flush();
+            outputStream.getFD().sync();
+        } finally {
+            try {
+                outputStream.close();
+            } finally {
+                outputStream = null;
+            }
+        }
+        cache.commitFile(file);
+        file = null;
+    }
+
+}
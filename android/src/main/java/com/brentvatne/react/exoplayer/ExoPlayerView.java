@@ -67,6 +67,8 @@ public class ExoPlayerView extends FrameLayout
     private SubtitleLayout subtitleLayout;
 
     private ExoPlayerWrapper player;
+    /** Network requests of the players created by this view, which replace each other */
+    private final DataSourceStats dataSourceStats = new DataSourceStats();
 
     private boolean playerNeedsPrepare;
 
@@ -200,7 +202,7 @@ public class ExoPlayerView extends FrameLayout
     private void createPlayer() {
         Log.d(LOGTAG, "createPlayer()");
         // Renderer handle obtaining data for a given URI
-        player = new ExoPlayerWrapper(getRendererBuilder());
+        player = new ExoPlayerWrapper(getRendererBuilder(), dataSourceStats);
         player.setSurface(textureViewHelper.getSurface());
         player.addListener(this);
         player.setCaptionListener(this);
@@ -484,6 +486,11 @@ public class ExoPlayerView extends FrameLayout
         return (player != null) && player.isPlaying();
     }
 
+    /** Timings and sizes of the network requests of all players of this view */
+    public DataSourceStats getDataSourceStats() {
+        return dataSourceStats;
+    }
+
     @Override
     public void onSeek(long oldPos, long newPos) {
         mListener.onSeek(newPos, oldPos);
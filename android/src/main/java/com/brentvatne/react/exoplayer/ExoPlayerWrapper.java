@@ -33,6 +33,7 @@ import com.google.android.exoplayer.MediaFormat;
 import com.google.android.exoplayer.TimeRange;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Chunk;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.Format;
 import com.google.android.exoplayer.dash.DashChunkSource;
@@ -58,7 +59,8 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         HlsSampleSource.EventListener, DefaultBandwidthMeter.EventListener,
         MediaCodecVideoTrackRenderer.EventListener, MediaCodecAudioTrackRenderer.EventListener,
         StreamingDrmSessionManager.EventListener, DashChunkSource.EventListener, TextRenderer,
-        MetadataRenderer<List<Id3Frame>>, DebugTextViewHelper.Provider {
+        MetadataRenderer<List<Id3Frame>>, DebugTextViewHelper.Provider,
+        LiveRefreshScheduler.Watcher {
 
     private static final String LOGTAG = ExoPlayerWrapper.class.getSimpleName();
     
@@ -192,14 +194,18 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     private int lastReportedPlaybackState;
     private boolean lastReportedPlayWhenReady;
 
-    private Surface surface;
+    // Volatile as the live refresh scheduler reads them in isRefreshWanted()
+    private volatile Surface surface;
+    private volatile boolean released;
     private TrackRenderer videoRenderer;
     private TrackRenderer audioRenderer;
     private CodecCounters codecCounters;
-    private Format videoFormat;
+    private volatile Format videoFormat;
     private int videoTrackToRestore;
 
     private BandwidthMeter bandwidthMeter;
+    private final LoadTimeTracker loadTimeTracker = new LoadTimeTracker();
+    private final DataSourceStats dataSourceStats;
     private boolean backgrounded;
 
     private CaptionListener captionListener;
@@ -220,7 +226,13 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     private int selectedTextTrack = TRACK_DEFAULT;
 
     public ExoPlayerWrapper(RendererBuilder rendererBuilder) {
+        this(rendererBuilder, new DataSourceStats());
+    }
+
+    /** @param dataSourceStats Where the network requests of this player are recorded */
+    public ExoPlayerWrapper(RendererBuilder rendererBuilder, DataSourceStats dataSourceStats) {
         this.rendererBuilder = rendererBuilder;
+        this.dataSourceStats = dataSourceStats;
         player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 1000, 5000);
         player.addListener(this);
         mainHandler = new Handler();
@@ -278,6 +290,7 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
             Log.d(LOGTAG, "setSurface(): " + surface + "; old: " + this.surface);
             this.surface = surface;
             pushSurface(block);
+            LiveRefreshScheduler.reschedule();
         }
     }
 
@@ -386,6 +399,16 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
 
     public void setPlayWhenReady(boolean playWhenReady) {
         player.setPlayWhenReady(playWhenReady);
+        LiveRefreshScheduler.reschedule();
+    }
+
+    /**
+     * Live manifests are only kept fresh while playing, and on screen unless audio only. Called on
+     * the scheduler thread.
+     */
+    @Override
+    public boolean isRefreshWanted() {
+        return !released && player.getPlayWhenReady() && (surface != null || videoFormat == null);
     }
 
 
@@ -405,7 +428,10 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         rendererBuilder.cancel();
         rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
         surface = null;
+        released = true;
+        DrmSessionPool.release(player.getPlaybackLooper());
         player.release();
+        LiveRefreshScheduler.reschedule();
     }
 
     public int getPlaybackState() {
@@ -431,6 +457,16 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
         return bandwidthMeter;
     }
 
+    /** Timings and sizes of the network requests made for this player */
+    public DataSourceStats getDataSourceStats() {
+        return dataSourceStats;
+    }
+
+    /** Recent media chunk load times, by source id */
+    /* package */ LoadTimeTracker getLoadTimeTracker() {
+        return loadTimeTracker;
+    }
+
     @Override
     public CodecCounters getCodecCounters() {
         return codecCounters;
@@ -634,6 +670,9 @@ public class ExoPlayerWrapper implements ExoPlayer.Listener, ChunkSampleSource.E
     @Override
     public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
                                 long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
+        if (type == Chunk.TYPE_MEDIA) {
+            loadTimeTracker.add(sourceId, loadDurationMs);
+        }
         if (infoListener != null) {
             infoListener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs,
                     mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
@@ -45,6 +45,9 @@ public class ExtractorRendererBuilder implements ExoPlayerWrapper.RendererBuilde
     private final String userAgent;
     private final Uri uri;
 
+    /** Source of the last build, released on cancel */
+    private DefaultUriDataSourceWrapper uriDataSource;
+
     public ExtractorRendererBuilder(Context context, String userAgent, Uri uri) {
         this.context = context;
         this.userAgent = userAgent;
@@ -60,7 +63,19 @@ public class ExtractorRendererBuilder implements ExoPlayerWrapper.RendererBuilde
                 null);
 
         //DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-        DataSource dataSource = new DefaultUriDataSourceWrapper(context, bandwidthMeter, userAgent);
+        int connections = DataSourceConfig.getParallelConnections();
+        uriDataSource = connections > 1
+                ? new DefaultUriDataSourceWrapper(context, bandwidthMeter,
+                        new ParallelRangeDataSource(userAgent, bandwidthMeter, connections,
+                                player.getDataSourceStats()),
+                        MediaCache.getCache(context))
+                : new DefaultUriDataSourceWrapper(context, bandwidthMeter, userAgent,
+                        MediaCache.getCache(context), player.getDataSourceStats());
+        DataSource dataSource = uriDataSource;
+        if (DataSourceConfig.isReadAheadEnabled() && MediaCache.isCacheable(uri)) {
+            // Overlap network reads with extractor parsing
+            dataSource = new ReadAheadDataSource(dataSource, DataSourceConfig.getReadAheadBytes());
+        }
         ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
                 BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE);
         MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context,
@@ -82,7 +97,11 @@ public class ExtractorRendererBuilder implements ExoPlayerWrapper.RendererBuilde
 
     @Override
     public void cancel() {
-        // Do nothing.
+        // Local files stay mapped between reads, unmap them once the player is done
+        if (uriDataSource != null) {
+            uriDataSource.release();
+            uriDataSource = null;
+        }
     }
 
 }
@@ -0,0 +1,456 @@
+package com.brentvatne.react.exoplayer;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.util.Assertions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues a second request for a chunk whose load is taking longer than most recent loads.
+ * <p/>
+ * Each request runs on its own thread into its own buffer. Once the primary request has been
+ * open for longer than the configured percentile of recent load times of the same source (see
+ * {@link LoadTimeTracker}) and the reader is waiting for bytes, a hedge request for the remaining
+ * range starts on a fresh upstream. Both requests serve the same bytes, so the reader takes each
+ * byte from whichever request has it first. When one request reaches the end the other is
+ * abandoned. A failed primary starts the hedge right away.
+ * <p/>
+ * Only network requests that can be resumed at a byte offset are hedged.
+ * <p/>
+ * Upstreams report their transfers through a listener of this source, which forwards them to the
+ * bandwidth meter only for the request that wins: bytes of both requests while they race are held
+ * back, and only those of the one that reaches the end are reported, so a hedge does not inflate
+ * the bandwidth estimate. Attempts run on a bounded pool and reuse their buffers.
+ */
+public class HedgingDataSource implements DataSource {
+
+    private static final String LOGTAG = HedgingDataSource.class.getSimpleName();
+
+    /** Creates a new upstream for each request, since a losing request may still be closing */
+    public interface UpstreamFactory {
+        /** Returns an upstream that reports its transfers to listener */
+        DataSource createDataSource(TransferListener listener);
+    }
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /** Never hedge a request sooner than this, whatever the recent load times */
+    private static final long MIN_HEDGE_DELAY_MS = 250;
+    /** Attempts in flight across all sources; a few players' primaries, hedges and losers closing */
+    private static final int MAX_THREADS = 16;
+    private static final int MAX_FREE_BUFFERS = 4;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS,
+            MAX_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Buffers of finished attempts. Guarded by itself. */
+    private static final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+
+    private final UpstreamFactory upstreamFactory;
+    /** Bandwidth meter, may be null */
+    private final TransferListener listener;
+    private final LoadTimeTracker loadTimeTracker;
+    private final int sourceId;
+    private final float percentile;
+
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private Attempt primary;
+    private Attempt hedge;
+    private long readPosition;
+    private long hedgeAtMs;
+    private boolean hedgeable;
+    /** Whether the listener was told of a transfer start for the open request */
+    private boolean transferStarted;
+
+    private DataSpec dataSpec;
+
+    public HedgingDataSource(UpstreamFactory upstreamFactory, TransferListener listener,
+                             LoadTimeTracker loadTimeTracker, int sourceId) {
+        this(upstreamFactory, listener, loadTimeTracker, sourceId,
+                DataSourceConfig.getHedgePercentile());
+    }
+
+    public HedgingDataSource(UpstreamFactory upstreamFactory, TransferListener listener,
+                             LoadTimeTracker loadTimeTracker, int sourceId, float percentile) {
+        this.upstreamFactory = upstreamFactory;
+        this.listener = listener;
+        this.loadTimeTracker = loadTimeTracker;
+        this.sourceId = sourceId;
+        this.percentile = percentile;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        Assertions.checkState(primary == null);
+        long openMs = SystemClock.elapsedRealtime();
+        AttemptListener attemptListener = new AttemptListener();
+        DataSource upstream = upstreamFactory.createDataSource(attemptListener);
+        long length;
+        try {
+            length = upstream.open(dataSpec);
+        } catch (IOException e) {
+            closeQuietly(upstream);
+            synchronized (lock) {
+                endTransfer();
+            }
+            throw e;
+        }
+        long thresholdMs = loadTimeTracker.getPercentileMs(sourceId, percentile);
+        synchronized (lock) {
+            this.dataSpec = dataSpec;
+            readPosition = 0;
+            hedge = null;
+            primary = new Attempt(upstream, attemptListener, null, 0);
+            attemptListener.flush();
+            hedgeable = thresholdMs >= 0 && MediaCache.isCacheable(dataSpec.uri)
+                    && dataSpec.postBody == null
+                    && (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) == 0;
+            hedgeAtMs = openMs + Math.max(thresholdMs, MIN_HEDGE_DELAY_MS);
+        }
+        executor.execute(primary);
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        synchronized (lock) {
+            while (true) {
+                int read = readFrom(primary, buffer, offset, readLength);
+                if (read == 0) {
+                    read = readFrom(hedge, buffer, offset, readLength);
+                }
+                if (read != 0) {
+                    return read;
+                }
+                if (primary.error != null && (hedge == null ? !hedgeable : hedge.error != null)) {
+                    throw primary.error;
+                }
+                long waitMs = maybeStartHedge();
+                try {
+                    lock.wait(waitMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /** Abandons requests in progress, which are canceled and close their upstreams on their own */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (primary != null) {
+                primary.abandon();
+            }
+            if (hedge != null) {
+                hedge.abandon();
+            }
+            primary = null;
+            hedge = null;
+            dataSpec = null;
+            endTransfer();
+            lock.notifyAll();
+        }
+    }
+
+    /** Tells the listener the transfer of the open request is over. Must hold lock. */
+    private void endTransfer() {
+        if (transferStarted) {
+            transferStarted = false;
+            if (listener != null) {
+                listener.onTransferEnd();
+            }
+        }
+    }
+
+    /**
+     * Copies buffered bytes at the read position from attempt. Returns the number of bytes read,
+     * {@link C#RESULT_END_OF_INPUT} if attempt ended at the read position, or 0. Must hold lock.
+     */
+    private int readFrom(Attempt attempt, byte[] buffer, int offset, int readLength) {
+        if (attempt == null || attempt.abandoned || readPosition < attempt.bufferStart) {
+            return 0;
+        }
+        if (readPosition < attempt.bufferEnd) {
+            int bytesToRead = (int) Math.min(readLength, attempt.bufferEnd - readPosition);
+            System.arraycopy(attempt.buffer, (int) (readPosition - attempt.bufferStart), buffer,
+                    offset, bytesToRead);
+            readPosition += bytesToRead;
+            lock.notifyAll();
+            return bytesToRead;
+        }
+        return attempt.ended ? C.RESULT_END_OF_INPUT : 0;
+    }
+
+    /** Starts the hedge request if due. Returns how long to wait for it, or 0. Must hold lock. */
+    private long maybeStartHedge() {
+        if (hedge != null || !hedgeable) {
+            return 0;
+        }
+        long nowMs = SystemClock.elapsedRealtime();
+        if (primary.error == null && nowMs < hedgeAtMs) {
+            return hedgeAtMs - nowMs;
+        }
+        long length = dataSpec.length == C.LENGTH_UNBOUNDED ? C.LENGTH_UNBOUNDED
+                : dataSpec.length - readPosition;
+        DataSpec remainder = new DataSpec(dataSpec.uri, null,
+                dataSpec.absoluteStreamPosition + readPosition, dataSpec.position + readPosition,
+                length, dataSpec.key, dataSpec.flags);
+        Log.d(LOGTAG, "maybeStartHedge(): hedging " + dataSpec.uri + " at " + readPosition);
+        AttemptListener attemptListener = new AttemptListener();
+        hedge = new Attempt(upstreamFactory.createDataSource(attemptListener), attemptListener,
+                remainder, readPosition);
+        executor.execute(hedge);
+        return 0;
+    }
+
+    /** Must hold lock */
+    private void onAttemptEnded(Attempt attempt) {
+        Attempt other = getOther(attempt);
+        if (other != null && !other.ended) {
+            if (attempt == hedge) {
+                Log.d(LOGTAG, "onAttemptEnded(): hedge won for " + dataSpec.uri);
+            }
+            other.abandon();
+        }
+        attempt.listener.flush();
+    }
+
+    /** Must hold lock */
+    private void onAttemptFailed(Attempt attempt) {
+        Attempt other = getOther(attempt);
+        if (other != null) {
+            // Not racing any more
+            other.listener.flush();
+        }
+    }
+
+    /** The other request for the range of attempt, or null. Must hold lock. */
+    private Attempt getOther(Attempt attempt) {
+        return attempt == primary ? hedge : attempt == hedge ? primary : null;
+    }
+
+    private static byte[] obtainBuffer() {
+        synchronized (freeBuffers) {
+            byte[] buffer = freeBuffers.pollFirst();
+            return buffer != null ? buffer : new byte[BUFFER_SIZE];
+        }
+    }
+
+    private static void recycleBuffer(byte[] buffer) {
+        synchronized (freeBuffers) {
+            if (freeBuffers.size() < MAX_FREE_BUFFERS) {
+                freeBuffers.addLast(buffer);
+            }
+        }
+    }
+
+    private static void closeQuietly(DataSource dataSource) {
+        try {
+            dataSource.close();
+        } catch (IOException e) {
+            // Nothing more to release
+        }
+    }
+
+    /** One request for the range from start, read on an executor thread */
+    private final class Attempt implements Runnable {
+
+        private final DataSource upstream;
+        /** Null if upstream is already open */
+        private final DataSpec dataSpec;
+        /** Given back once the attempt is both abandoned and finished */
+        private final byte[] buffer = obtainBuffer();
+
+        // Guarded by lock
+        private long bufferStart;
+        private long bufferEnd;
+        private boolean ended;
+        private boolean abandoned;
+        private boolean finished;
+        private IOException error;
+
+        private final AttemptListener listener;
+
+        /** Must hold lock */
+        Attempt(DataSource upstream, AttemptListener listener, DataSpec dataSpec, long start) {
+            this.upstream = upstream;
+            this.listener = listener;
+            listener.attempt = this;
+            this.dataSpec = dataSpec;
+            bufferStart = start;
+            bufferEnd = start;
+        }
+
+        /**
+         * Stops the attempt, its bytes are no longer read. A read or retry in progress is canceled
+         * if upstream supports it. Must hold lock.
+         */
+        void abandon() {
+            if (!abandoned) {
+                abandoned = true;
+                if (finished) {
+                    recycleBuffer(buffer);
+                } else if (upstream instanceof CancelableDataSource) {
+                    ((CancelableDataSource) upstream).cancel();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (lock) {
+                    if (abandoned) {
+                        return;
+                    }
+                }
+                if (dataSpec != null) {
+                    upstream.open(dataSpec);
+                }
+                fill();
+            } catch (IOException e) {
+                synchronized (lock) {
+                    error = e;
+                    onAttemptFailed(this);
+                    lock.notifyAll();
+                }
+            } finally {
+                closeQuietly(upstream);
+                synchronized (lock) {
+                    finished = true;
+                    if (abandoned) {
+                        recycleBuffer(buffer);
+                    }
+                }
+            }
+        }
+
+        private void fill() throws IOException {
+            while (true) {
+                int writeOffset;
+                synchronized (lock) {
+                    while (!abandoned && !compact()) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (abandoned) {
+                        return;
+                    }
+                    writeOffset = (int) (bufferEnd - bufferStart);
+                }
+                // Only this thread moves bytes within the buffer, and the reader never looks past
+                // bufferEnd, so the free region is filled outside the lock
+                int read = upstream.read(buffer, writeOffset, buffer.length - writeOffset);
+                synchronized (lock) {
+                    if (abandoned) {
+                        return;
+                    }
+                    if (read == C.RESULT_END_OF_INPUT) {
+                        ended = true;
+                        onAttemptEnded(this);
+                        lock.notifyAll();
+                        return;
+                    }
+                    bufferEnd += read;
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        /** Drops bytes the reader is done with. Returns whether there is free space. Must hold lock. */
+        private boolean compact() {
+            if (readPosition >= bufferEnd) {
+                // The other request is ahead of this one, nothing buffered is needed
+                bufferStart = bufferEnd;
+            } else if (readPosition > bufferStart) {
+                int consumed = (int) (readPosition - bufferStart);
+                System.arraycopy(buffer, consumed, buffer, 0, (int) (bufferEnd - readPosition));
+                bufferStart = readPosition;
+            }
+            return bufferEnd - bufferStart < buffer.length;
+        }
+
+    }
+
+    /**
+     * Receives the transfers of one attempt's upstream. Forwards them to the source's listener
+     * while the attempt is the only live request, holds back its bytes while it races another, and
+     * drops them once it is abandoned.
+     */
+    private final class AttemptListener implements TransferListener {
+
+        // Guarded by lock
+        /** Null until the attempt is created, after its upstream */
+        Attempt attempt;
+        private long heldBytes;
+
+        @Override
+        public void onTransferStart() {
+            synchronized (lock) {
+                if (!transferStarted && (attempt == null || !attempt.abandoned)) {
+                    transferStarted = true;
+                    if (listener != null) {
+                        listener.onTransferStart();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onBytesTransferred(int bytes) {
+            synchronized (lock) {
+                if (attempt != null && attempt.abandoned) {
+                    return;
+                }
+                heldBytes += bytes;
+                if (attempt != null && !isRacing()) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void onTransferEnd() {
+            // The source's transfer ends when the source is closed
+        }
+
+        /** Whether another live request serves the same range. Must hold lock. */
+        private boolean isRacing() {
+            Attempt other = getOther(attempt);
+            return other != null && !other.abandoned && other.error == null;
+        }
+
+        /** Reports held back bytes. Must hold lock. */
+        void flush() {
+            if (heldBytes > 0 && transferStarted && !attempt.abandoned) {
+                if (listener != null) {
+                    listener.onBytesTransferred((int) heldBytes);
+                }
+                heldBytes = 0;
+            }
+        }
+
+    }
+
+}
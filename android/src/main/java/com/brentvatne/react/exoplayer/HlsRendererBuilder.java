@@ -31,8 +31,8 @@ import com.google.android.exoplayer.hls.DefaultHlsTrackSelector;
 import com.google.android.exoplayer.hls.HlsChunkSource;
 import com.google.android.exoplayer.hls.HlsMasterPlaylist;
 import com.google.android.exoplayer.hls.HlsPlaylist;
-import com.google.android.exoplayer.hls.HlsPlaylistParser;
 import com.google.android.exoplayer.hls.HlsSampleSource;
+import com.google.android.exoplayer.hls.HlsTrackSelector;
 import com.google.android.exoplayer.hls.PtsTimestampAdjusterProvider;
 import com.google.android.exoplayer.metadata.MetadataTrackRenderer;
 import com.google.android.exoplayer.metadata.id3.Id3Frame;
@@ -42,7 +42,7 @@ import com.google.android.exoplayer.text.eia608.Eia608TrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.ManifestFetcher.ManifestCallback;
 
@@ -99,9 +99,10 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
       this.userAgent = userAgent;
       this.url = url;
       this.player = player;
-      HlsPlaylistParser parser = new HlsPlaylistParser();
-      playlistFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, userAgent),
-          parser);
+      RevalidatingManifestDataSource playlistDataSource =
+          new RevalidatingManifestDataSource(context, userAgent);
+      playlistFetcher = new ManifestFetcher<>(url, playlistDataSource,
+          playlistDataSource.wrap(new CompactHlsPlaylistParser()));
     }
 
     public void init() {
@@ -127,15 +128,27 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
         return;
       }
 
+      // Stick to the downloaded variant, if any, otherwise to what the device can play
+      HlsTrackSelector trackSelector = DefaultHlsTrackSelector.newDefaultInstance(context);
+      Download download = DownloadManager.findDownload(context, url);
+      if (download != null && download.getVariantUrl() != null) {
+        trackSelector = new OfflineHlsTrackSelector(download.getVariantUrl(), trackSelector);
+      } else {
+        manifest = HlsVariantPruner.prune(context, manifest);
+      }
+
+      // Fetch the start of the stream while the renderers are built
+      StartupPrefetcher.prefetch(context, userAgent, url, manifest);
+
       Handler mainHandler = player.getMainHandler();
       LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
       DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
       PtsTimestampAdjusterProvider timestampAdjusterProvider = new PtsTimestampAdjusterProvider();
 
       // Build the video/audio/metadata renderers.
-      DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource dataSource = newMediaDataSource(bandwidthMeter, ExoPlayerWrapper.TYPE_VIDEO);
       HlsChunkSource chunkSource = new HlsChunkSource(true /* isMaster */, dataSource, url,
-          manifest, DefaultHlsTrackSelector.newDefaultInstance(context), bandwidthMeter,
+          manifest, trackSelector, bandwidthMeter,
           timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
       HlsSampleSource sampleSource = new HlsSampleSource(chunkSource, loadControl,
           MAIN_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player, ExoPlayerWrapper.TYPE_VIDEO);
@@ -155,7 +168,8 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
       }
       TrackRenderer textRenderer;
       if (preferWebvtt) {
-        DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+        DataSource textDataSource = new DefaultUriDataSourceWrapper(context, bandwidthMeter,
+            userAgent, MediaCache.getCache(context), player.getDataSourceStats());
         HlsChunkSource textChunkSource = new HlsChunkSource(false /* isMaster */, textDataSource,
             url, manifest, DefaultHlsTrackSelector.newVttInstance(), bandwidthMeter,
             timestampAdjusterProvider, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
@@ -174,6 +188,26 @@ public class HlsRendererBuilder implements ExoPlayerWrapper.RendererBuilder {
       player.onRenderers(renderers, bandwidthMeter);
     }
 
+    private DataSource newMediaDataSource(final DefaultBandwidthMeter bandwidthMeter, int sourceId) {
+      if (!DataSourceConfig.isHedgingEnabled()) {
+        return newMediaUpstream(bandwidthMeter);
+      }
+      return new HedgingDataSource(new HedgingDataSource.UpstreamFactory() {
+        @Override
+        public DataSource createDataSource(TransferListener listener) {
+          return newMediaUpstream(listener);
+        }
+      }, bandwidthMeter, player.getLoadTimeTracker(), sourceId);
+    }
+
+    private DataSource newMediaUpstream(TransferListener bandwidthMeter) {
+      DefaultUriDataSourceWrapper dataSource = new DefaultUriDataSourceWrapper(context,
+          bandwidthMeter, userAgent, MediaCache.getCache(context), player.getDataSourceStats());
+      // Live playlists are kept fresh by the scheduler while this player is watched
+      dataSource.setRefreshWatcher(player, userAgent);
+      return dataSource;
+    }
+
   }
 
 }
@@ -0,0 +1,159 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.google.android.exoplayer.MediaCodecUtil;
+import com.google.android.exoplayer.MediaCodecUtil.DecoderQueryException;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.Variant;
+import com.google.android.exoplayer.util.MimeTypes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drops the variants of an HLS master playlist that this device cannot play, or need not, before
+ * chunk sources are built from it.
+ * <p/>
+ * A variant goes if it declares a codec that no decoder (or, for AC-3, no audio output) supports,
+ * if it is larger than the H.264 decoder can handle, or if it is larger than a variant that
+ * already covers the display. Adaptation then never probes or switches to a rendition the device
+ * cannot show, and each decision has fewer candidates. Decoder capabilities are queried once per
+ * process. If nothing would be left, the playlist is kept as it is.
+ */
+public final class HlsVariantPruner {
+
+    private static final String LOGTAG = HlsVariantPruner.class.getSimpleName();
+
+    /** Whether each mime type has a decoder. Guarded by itself. */
+    private static final Map<String, Boolean> decoderSupport = new HashMap<>();
+    /** Largest decodable H.264 frame in pixels, 0 until queried */
+    private static int maxH264FrameSize;
+
+    private HlsVariantPruner() {
+    }
+
+    /** Returns playlist without the variants this device should not play */
+    public static HlsPlaylist prune(Context context, HlsPlaylist playlist) {
+        if (!(playlist instanceof HlsMasterPlaylist)) {
+            return playlist;
+        }
+        HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
+        AudioCapabilities audioCapabilities = AudioCapabilities.getCapabilities(context);
+        List<Variant> playable = new ArrayList<>();
+        for (Variant variant : masterPlaylist.variants) {
+            if (isPlayable(variant.format, audioCapabilities)) {
+                playable.add(variant);
+            }
+        }
+        playable = pruneOversized(context, playable);
+        if (playable.isEmpty() || playable.size() == masterPlaylist.variants.size()) {
+            return playlist;
+        }
+        Log.d(LOGTAG, "prune(): kept " + playable.size() + " of "
+                + masterPlaylist.variants.size() + " variants");
+        return new HlsMasterPlaylist(masterPlaylist.baseUri, playable, masterPlaylist.subtitles);
+    }
+
+    private static boolean isPlayable(Format format, AudioCapabilities audioCapabilities) {
+        if (format.codecs != null) {
+            for (String codec : format.codecs.split(",")) {
+                if (!isCodecSupported(codec.trim(), audioCapabilities)) {
+                    return false;
+                }
+            }
+        }
+        if (format.width > 0 && format.height > 0 && isH264(format.codecs)) {
+            int maxFrameSize = getMaxH264FrameSize();
+            return maxFrameSize <= 0 || format.width * format.height <= maxFrameSize;
+        }
+        return true;
+    }
+
+    private static boolean isCodecSupported(String codec, AudioCapabilities audioCapabilities) {
+        if (codec.startsWith("ac-3")) {
+            return audioCapabilities.supportsEncoding(AudioFormat.ENCODING_AC3)
+                    || hasDecoder(MimeTypes.AUDIO_AC3);
+        } else if (codec.startsWith("ec-3")) {
+            return audioCapabilities.supportsEncoding(AudioFormat.ENCODING_E_AC3)
+                    || hasDecoder(MimeTypes.AUDIO_E_AC3);
+        } else if (codec.startsWith("hev1") || codec.startsWith("hvc1")) {
+            return hasDecoder(MimeTypes.VIDEO_H265);
+        } else if (codec.startsWith("vp09") || codec.startsWith("vp9")) {
+            return hasDecoder(MimeTypes.VIDEO_VP9);
+        }
+        // H.264 and AAC always have a decoder, anything we cannot name is given the benefit
+        return true;
+    }
+
+    private static boolean isH264(String codecs) {
+        return codecs == null || codecs.contains("avc");
+    }
+
+    private static boolean hasDecoder(String mimeType) {
+        synchronized (decoderSupport) {
+            Boolean supported = decoderSupport.get(mimeType);
+            if (supported == null) {
+                try {
+                    supported = MediaCodecUtil.getDecoderInfo(mimeType, false) != null;
+                } catch (DecoderQueryException e) {
+                    Log.w(LOGTAG, "hasDecoder(): query failed for " + mimeType, e);
+                    supported = true;
+                }
+                decoderSupport.put(mimeType, supported);
+            }
+            return supported;
+        }
+    }
+
+    private static synchronized int getMaxH264FrameSize() {
+        if (maxH264FrameSize == 0) {
+            try {
+                maxH264FrameSize = MediaCodecUtil.maxH264DecodableFrameSize();
+            } catch (DecoderQueryException e) {
+                Log.w(LOGTAG, "getMaxH264FrameSize(): query failed", e);
+                maxH264FrameSize = -1;
+            }
+        }
+        return maxH264FrameSize;
+    }
+
+    /**
+     * Drops the variants larger than the smallest one that covers the display in either
+     * orientation. Variants of unknown size are kept.
+     */
+    private static List<Variant> pruneOversized(Context context, List<Variant> variants) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int displayLong = Math.max(metrics.widthPixels, metrics.heightPixels);
+        int displayShort = Math.min(metrics.widthPixels, metrics.heightPixels);
+        int coveringPixels = Integer.MAX_VALUE;
+        for (Variant variant : variants) {
+            Format format = variant.format;
+            if (Math.max(format.width, format.height) >= displayLong
+                    && Math.min(format.width, format.height) >= displayShort) {
+                coveringPixels = Math.min(coveringPixels, format.width * format.height);
+            }
+        }
+        if (coveringPixels == Integer.MAX_VALUE) {
+            return variants;
+        }
+        List<Variant> pruned = new ArrayList<>();
+        for (Variant variant : variants) {
+            Format format = variant.format;
+            if (format.width <= 0 || format.height <= 0
+                    || format.width * format.height <= coveringPixels) {
+                pruned.add(variant);
+            }
+        }
+        return pruned;
+    }
+
+}
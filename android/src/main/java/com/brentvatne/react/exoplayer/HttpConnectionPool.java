@@ -0,0 +1,73 @@
+package com.brentvatne.react.exoplayer;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Process-wide settings that let every player share keep-alive connections.
+ * <p/>
+ * The platform {@link HttpURLConnection} already pools idle connections per process, but only
+ * reuses one when the request uses the same {@link SSLSocketFactory} instance and the previous
+ * response was released without {@link HttpURLConnection#disconnect()}. Connections opened through
+ * {@link #openConnection(URL)} use a single factory whose client session cache allows TLS session
+ * resumption when a pooled connection has expired.
+ */
+public final class HttpConnectionPool {
+
+    private static final String LOGTAG = HttpConnectionPool.class.getSimpleName();
+
+    /** Idle connections kept per host. Platform default (5) is too low for a feed of players */
+    public static final int MAX_IDLE_CONNECTIONS = 16;
+
+    private static final int TLS_SESSION_CACHE_SIZE = 64;
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = 60 * 60;
+
+    private static SSLSocketFactory sslSocketFactory;
+
+    private HttpConnectionPool() {
+    }
+
+    /**
+     * Applies the pool settings. Idempotent; must run before the first connection in the process
+     * for the pool size to take effect, so it is called from
+     * {@link com.brentvatne.react.ReactVideoPackage}.
+     */
+    public static synchronized void init() {
+        if (sslSocketFactory != null) {
+            return;
+        }
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+            sslSocketFactory = sslContext.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            Log.w(LOGTAG, "init(): using default socket factory", e);
+            sslSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        }
+    }
+
+    /** Opens a connection that is eligible for reuse by any player */
+    public static HttpURLConnection openConnection(URL url) throws IOException {
+        init();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+        return connection;
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.brentvatne.react.exoplayer;
+
+import android.util.Log;
+
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer.upstream.cache.CacheSpan;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@link SimpleCache} that does not hold up playback while it scans its directory.
+ * <p/>
+ * SimpleCache lists and parses every span file on creation, and every call blocks until that is
+ * done, which takes hundreds of milliseconds with thousands of spans. Until then this consults a
+ * {@link CacheIndex} instead: reads of bytes the index knows about are served straight from the
+ * span file it names, and all other reads bypass the cache and go to the network. Spans read that
+ * way are not marked as accessed, and one evicted by the scan fails its read, which is retried.
+ * The index is kept up to date from the evictor callbacks, and rewritten from the scan results
+ * once the scan completes so it never drifts far from the directory.
+ */
+public final class IndexedCache implements Cache {
+
+    private static final String LOGTAG = IndexedCache.class.getSimpleName();
+
+    private final File cacheDir;
+    private final CacheEvictor evictor;
+    private final SimpleCache cache;
+
+    private final Object indexLock = new Object();
+    /** Guarded by indexLock, as are the fields below */
+    private final CacheIndex index;
+    /** Spans reported by the directory scan, null once it is done */
+    private Map<String, NavigableMap<Long, CacheIndex.Span>> scannedSpans = new HashMap<>();
+
+    private volatile boolean initialized;
+
+    public IndexedCache(File cacheDir, File indexFile, CacheEvictor evictor) {
+        this.cacheDir = cacheDir;
+        this.evictor = evictor;
+        this.index = new CacheIndex(indexFile);
+        final long startMs = System.currentTimeMillis();
+        cache = new SimpleCache(cacheDir, new IndexingEvictor());
+        new Thread(LOGTAG) {
+            @Override
+            public void run() {
+                // Returns once the directory scan is done, as every SimpleCache method does
+                long bytes = cache.getCacheSpace();
+                synchronized (indexLock) {
+                    index.rewrite(scannedSpans);
+                    scannedSpans = null;
+                }
+                initialized = true;
+                Log.d(LOGTAG, "initialized in " + (System.currentTimeMillis() - startMs)
+                        + "ms; bytes: " + bytes);
+            }
+        }.start();
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+        return cache.addListener(key, listener);
+    }
+
+    @Override
+    public void removeListener(String key, Listener listener) {
+        cache.removeListener(key, listener);
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> getCachedSpans(String key) {
+        return cache.getCachedSpans(key);
+    }
+
+    @Override
+    public Set<String> getKeys() {
+        return cache.getKeys();
+    }
+
+    @Override
+    public long getCacheSpace() {
+        return cache.getCacheSpace();
+    }
+
+    /**
+     * Until the scan is done, returns the indexed span file holding position, or null, so the read
+     * bypasses the cache, if there is none.
+     */
+    @Override
+    public CacheSpan startReadWrite(String key, long position) throws InterruptedException {
+        return isScanning() ? getIndexedSpan(key, position) : cache.startReadWrite(key, position);
+    }
+
+    /**
+     * Until the scan is done, returns the indexed span file holding position, or null, so the read
+     * bypasses the cache, if there is none.
+     */
+    @Override
+    public CacheSpan startReadWriteNonBlocking(String key, long position) {
+        return isScanning() ? getIndexedSpan(key, position)
+                : cache.startReadWriteNonBlocking(key, position);
+    }
+
+    @Override
+    public File startFile(String key, long position, long length) {
+        return cache.startFile(key, position, length);
+    }
+
+    @Override
+    public void commitFile(File file) {
+        cache.commitFile(file);
+    }
+
+    @Override
+    public void releaseHoleSpan(CacheSpan holeSpan) {
+        cache.releaseHoleSpan(holeSpan);
+    }
+
+    @Override
+    public void removeSpan(CacheSpan span) {
+        cache.removeSpan(span);
+    }
+
+    /** Answers from the index until the scan is done */
+    @Override
+    public boolean isCached(String key, long position, long length) {
+        if (!initialized) {
+            synchronized (indexLock) {
+                if (scannedSpans != null) {
+                    return index.contains(key, position, length);
+                }
+            }
+        }
+        return cache.isCached(key, position, length);
+    }
+
+    private boolean isScanning() {
+        if (initialized) {
+            return false;
+        }
+        synchronized (indexLock) {
+            return scannedSpans != null;
+        }
+    }
+
+    /** Returns the span of key holding position according to the index if its file exists */
+    private CacheSpan getIndexedSpan(String key, long position) {
+        CacheIndex.Span span;
+        synchronized (indexLock) {
+            span = index.get(key, position);
+        }
+        if (span == null) {
+            return null;
+        }
+        File file = CacheSpan.getCacheFileName(cacheDir, key, span.position,
+                span.lastAccessTimestamp);
+        return file.exists() ? CacheSpan.createCacheEntry(file) : null;
+    }
+
+    private static void put(Map<String, NavigableMap<Long, CacheIndex.Span>> spans,
+                            CacheSpan span) {
+        NavigableMap<Long, CacheIndex.Span> keySpans = spans.get(span.key);
+        if (keySpans == null) {
+            keySpans = new TreeMap<>();
+            spans.put(span.key, keySpans);
+        }
+        keySpans.put(span.position,
+                new CacheIndex.Span(span.position, span.length, span.lastAccessTimestamp));
+    }
+
+    /**
+     * Records span changes in the index before passing them on. Called by SimpleCache with its
+     * lock held, so nothing here may call back into it while holding indexLock.
+     */
+    private final class IndexingEvictor implements CacheEvictor {
+
+        @Override
+        public void onStartFile(Cache cache, String key, long position, long length) {
+            evictor.onStartFile(cache, key, position, length);
+        }
+
+        @Override
+        public void onSpanAdded(Cache cache, CacheSpan span) {
+            synchronized (indexLock) {
+                if (scannedSpans != null) {
+                    put(scannedSpans, span);
+                } else {
+                    index.add(span.key, span.position, span.length, span.lastAccessTimestamp);
+                }
+            }
+            evictor.onSpanAdded(cache, span);
+        }
+
+        @Override
+        public void onSpanRemoved(Cache cache, CacheSpan span) {
+            synchronized (indexLock) {
+                if (scannedSpans != null) {
+                    NavigableMap<Long, CacheIndex.Span> keySpans = scannedSpans.get(span.key);
+                    if (keySpans != null) {
+                        keySpans.remove(span.position);
+                    }
+                } else {
+                    index.remove(span.key, span.position);
+                }
+            }
+            evictor.onSpanRemoved(cache, span);
+        }
+
+        @Override
+        public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+            // Same key, position and length, only the access time, and so the file name, changes
+            synchronized (indexLock) {
+                if (scannedSpans != null) {
+                    put(scannedSpans, newSpan);
+                } else {
+                    index.add(newSpan.key, newSpan.position, newSpan.length,
+                            newSpan.lastAccessTimestamp);
+                }
+            }
+            evictor.onSpanTouched(cache, oldSpan, newSpan);
+        }
+
+    }
+
+}
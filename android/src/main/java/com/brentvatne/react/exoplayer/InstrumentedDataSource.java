@@ -0,0 +1,125 @@
+package com.brentvatne.react.exoplayer;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource.InvalidResponseCodeException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the timings and size of each request made through an {@link HttpDataSource} in
+ * {@link DataSourceStats}.
+ * <p/>
+ * Connect times are only known for a {@link KeepAliveHttpDataSource} upstream. For other
+ * upstreams the whole open is recorded as time to first byte.
+ */
+public class InstrumentedDataSource implements HttpDataSource, CancelableDataSource {
+
+    private final HttpDataSource upstream;
+    /** Null to record process-wide stats only */
+    private final DataSourceStats playerStats;
+
+    private boolean opened;
+    private long connectMs;
+    private long ttfbMs;
+    private long openedAtMs;
+    private long bytesRead;
+
+    public InstrumentedDataSource(HttpDataSource upstream, DataSourceStats playerStats) {
+        this.upstream = upstream;
+        this.playerStats = playerStats;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws HttpDataSourceException {
+        long startMs = SystemClock.elapsedRealtime();
+        long length;
+        try {
+            length = upstream.open(dataSpec);
+        } catch (HttpDataSourceException e) {
+            if (!isNotModified(e)) {
+                DataSourceStats.global().openErrors.incrementAndGet();
+                if (playerStats != null) {
+                    playerStats.openErrors.incrementAndGet();
+                }
+            }
+            throw e;
+        }
+        openedAtMs = SystemClock.elapsedRealtime();
+        if (upstream instanceof KeepAliveHttpDataSource) {
+            KeepAliveHttpDataSource keepAlive = (KeepAliveHttpDataSource) upstream;
+            connectMs = keepAlive.getConnectMs();
+            ttfbMs = keepAlive.getResponseMs();
+        } else {
+            connectMs = -1;
+            ttfbMs = openedAtMs - startMs;
+        }
+        bytesRead = 0;
+        opened = true;
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+        int read = upstream.read(buffer, offset, readLength);
+        if (read > 0) {
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public void cancel() {
+        if (upstream instanceof CancelableDataSource) {
+            ((CancelableDataSource) upstream).cancel();
+        }
+    }
+
+    @Override
+    public void close() throws HttpDataSourceException {
+        if (opened) {
+            opened = false;
+            long transferMs = SystemClock.elapsedRealtime() - openedAtMs;
+            DataSourceStats.global().record(connectMs, ttfbMs, transferMs, bytesRead);
+            if (playerStats != null) {
+                playerStats.record(connectMs, ttfbMs, transferMs, bytesRead);
+            }
+        }
+        upstream.close();
+    }
+
+    /** A 304 answers a conditional request (see {@link RevalidatingManifestDataSource}) */
+    private static boolean isNotModified(HttpDataSourceException e) {
+        return e instanceof InvalidResponseCodeException
+                && ((InvalidResponseCodeException) e).responseCode == 304;
+    }
+
+    @Override
+    public String getUri() {
+        return upstream.getUri();
+    }
+
+    @Override
+    public void setRequestProperty(String name, String value) {
+        upstream.setRequestProperty(name, value);
+    }
+
+    @Override
+    public void clearRequestProperty(String name) {
+        upstream.clearRequestProperty(name);
+    }
+
+    @Override
+    public void clearAllRequestProperties() {
+        upstream.clearAllRequestProperties();
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return upstream.getResponseHeaders();
+    }
+
+}
@@ -0,0 +1,552 @@
+package com.brentvatne.react.exoplayer;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.util.Assertions;
+import com.google.android.exoplayer.util.Predicate;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link HttpDataSource} that hands its connection back to the shared {@link HttpConnectionPool}.
+ * <p/>
+ * Behaves like {@link com.google.android.exoplayer.upstream.DefaultHttpDataSource}, except that
+ * {@link #close()} releases the response body instead of calling
+ * {@link HttpURLConnection#disconnect()}, which would close the socket. Short unread remainders
+ * are drained so the connection stays reusable. Redirects of GET requests are remembered in the
+ * {@link RedirectCache} and skipped on later opens of the same URL.
+ */
+public class KeepAliveHttpDataSource implements HttpDataSource, CancelableDataSource {
+
+    private static final String LOGTAG = KeepAliveHttpDataSource.class.getSimpleName();
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 8 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 8 * 1000;
+
+    private static final int MAX_REDIRECTS = 20;
+    /** Unread bytes at close up to which the body is drained to keep the connection alive */
+    private static final long MAX_DRAIN_BYTES = 16 * 1024;
+    private static final Pattern CONTENT_RANGE_HEADER =
+            Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+)$");
+
+    private final String userAgent;
+    private final Predicate<String> contentTypePredicate;
+    private final TransferListener listener;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final boolean allowCrossProtocolRedirects;
+    private final HashMap<String, String> requestProperties;
+
+    private final byte[] skipBuffer = new byte[4096];
+
+    private DataSpec dataSpec;
+    /** Volatile for {@link #cancel()} */
+    private volatile HttpURLConnection connection;
+    private volatile boolean canceled;
+    private InputStream inputStream;
+    private boolean opened;
+
+    private long bytesToSkip;
+    private long bytesToRead;
+    private long bytesSkipped;
+    private long bytesRead;
+    /** Whether the body was read to its end, so the connection can be reused as is */
+    private boolean endOfInput;
+
+    // Timings of the last open, summed over redirects
+    private long connectMs;
+    private long responseMs;
+
+    public KeepAliveHttpDataSource(String userAgent, TransferListener listener) {
+        this(userAgent, null, listener, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS,
+                false);
+    }
+
+    public KeepAliveHttpDataSource(String userAgent, Predicate<String> contentTypePredicate,
+                                   TransferListener listener, int connectTimeoutMillis,
+                                   int readTimeoutMillis, boolean allowCrossProtocolRedirects) {
+        this.userAgent = Assertions.checkNotEmpty(userAgent);
+        this.contentTypePredicate = contentTypePredicate;
+        this.listener = listener;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.allowCrossProtocolRedirects = allowCrossProtocolRedirects;
+        this.requestProperties = new HashMap<>();
+    }
+
+    @Override
+    public String getUri() {
+        return connection == null ? null : connection.getURL().toString();
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return connection == null ? null : connection.getHeaderFields();
+    }
+
+    @Override
+    public void setRequestProperty(String name, String value) {
+        Assertions.checkNotNull(name);
+        Assertions.checkNotNull(value);
+        synchronized (requestProperties) {
+            requestProperties.put(name, value);
+        }
+    }
+
+    @Override
+    public void clearRequestProperty(String name) {
+        Assertions.checkNotNull(name);
+        synchronized (requestProperties) {
+            requestProperties.remove(name);
+        }
+    }
+
+    @Override
+    public void clearAllRequestProperties() {
+        synchronized (requestProperties) {
+            requestProperties.clear();
+        }
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws HttpDataSourceException {
+        this.dataSpec = dataSpec;
+        this.bytesRead = 0;
+        this.bytesSkipped = 0;
+        endOfInput = false;
+        canceled = false;
+        connectMs = 0;
+        long openStartMs = SystemClock.elapsedRealtime();
+        try {
+            connection = makeConnection(dataSpec);
+        } catch (IOException e) {
+            throw new HttpDataSourceException("Unable to connect to " + dataSpec.uri.toString(), e,
+                    dataSpec, HttpDataSourceException.TYPE_OPEN);
+        }
+        if (canceled) {
+            // Canceled while connecting, before the connection could be dropped
+            discardConnection();
+            throw new HttpDataSourceException(new InterruptedIOException(), dataSpec,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+
+        int responseCode;
+        try {
+            responseCode = connection.getResponseCode();
+            responseMs = SystemClock.elapsedRealtime() - openStartMs - connectMs;
+        } catch (IOException e) {
+            discardConnection();
+            throw new HttpDataSourceException("Unable to connect to " + dataSpec.uri.toString(), e,
+                    dataSpec, HttpDataSourceException.TYPE_OPEN);
+        }
+
+        if (responseCode < 200 || responseCode > 299) {
+            Map<String, List<String>> headers = connection.getHeaderFields();
+            releaseErrorBody();
+            throw new InvalidResponseCodeException(responseCode, headers, dataSpec);
+        }
+
+        String contentType = connection.getContentType();
+        if (contentTypePredicate != null && !contentTypePredicate.evaluate(contentType)) {
+            discardConnection();
+            throw new InvalidContentTypeException(contentType, dataSpec);
+        }
+
+        // Server ignored the range request, skip to the requested position
+        bytesToSkip = responseCode == 200 && dataSpec.position != 0 ? dataSpec.position : 0;
+
+        if ((dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) == 0) {
+            long contentLength = getContentLength(connection);
+            bytesToRead = dataSpec.length != C.LENGTH_UNBOUNDED ? dataSpec.length
+                    : contentLength != C.LENGTH_UNBOUNDED ? contentLength - bytesToSkip
+                    : C.LENGTH_UNBOUNDED;
+        } else {
+            // Gzip is enabled, content length refers to the compressed size
+            bytesToRead = dataSpec.length;
+        }
+
+        try {
+            inputStream = connection.getInputStream();
+        } catch (IOException e) {
+            discardConnection();
+            throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_OPEN);
+        }
+
+        opened = true;
+        if (listener != null) {
+            listener.onTransferStart();
+        }
+        return bytesToRead;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+        try {
+            skipInternal();
+            return readInternal(buffer, offset, readLength);
+        } catch (IOException e) {
+            throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_READ);
+        }
+    }
+
+    /** Drops the connection, which makes a blocked read fail. It is not returned to the pool. */
+    @Override
+    public void cancel() {
+        canceled = true;
+        HttpURLConnection connection = this.connection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void close() throws HttpDataSourceException {
+        try {
+            if (inputStream != null) {
+                try {
+                    releaseBody();
+                } catch (IOException e) {
+                    throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_CLOSE);
+                }
+            }
+        } finally {
+            inputStream = null;
+            connection = null;
+            if (opened) {
+                opened = false;
+                if (listener != null) {
+                    listener.onTransferEnd();
+                }
+            }
+        }
+    }
+
+    /** Bytes remaining in the response, or {@link C#LENGTH_UNBOUNDED} if unknown */
+    protected final long bytesRemaining() {
+        return bytesToRead == C.LENGTH_UNBOUNDED ? bytesToRead : bytesToRead - bytesRead;
+    }
+
+    /**
+     * Time spent setting up connections in the last open, including host name resolution, in ms.
+     * 0 for pooled connections.
+     */
+    public long getConnectMs() {
+        return connectMs;
+    }
+
+    /** Time from sending requests to receiving response headers in the last open, in ms */
+    public long getResponseMs() {
+        return responseMs;
+    }
+
+    /** The connection of the open request, or null */
+    protected final HttpURLConnection getConnection() {
+        return connection;
+    }
+
+    private HttpURLConnection makeConnection(DataSpec dataSpec) throws IOException {
+        URL url = new URL(dataSpec.uri.toString());
+        byte[] postBody = dataSpec.postBody;
+        long position = dataSpec.position;
+        long length = dataSpec.length;
+        boolean allowGzip = (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0;
+
+        // Only GET redirects are cached, 307/308 for a POST are followed each time
+        String cacheKey = postBody == null ? url.toString() : null;
+        String cachedTarget = cacheKey == null ? null : RedirectCache.get(cacheKey);
+        if (cachedTarget != null) {
+            try {
+                HttpURLConnection connection =
+                        followRedirects(new URL(cachedTarget), null, position, length, allowGzip, null);
+                int responseCode = connection.getResponseCode();
+                if (responseCode >= 200 && responseCode <= 299) {
+                    return connection;
+                }
+                releaseConnection(connection);
+            } catch (IOException e) {
+                // Retry through the original url below
+            }
+            Log.d(LOGTAG, "makeConnection(): cached redirect to " + cachedTarget + " failed");
+            RedirectCache.invalidate(cacheKey);
+        }
+        return followRedirects(url, postBody, position, length, allowGzip, cacheKey);
+    }
+
+    /**
+     * Connects to url, following redirects. If cacheKey is non-null, a redirect is recorded in the
+     * {@link RedirectCache} under it, for as long as the redirect responses allow.
+     * <p/>
+     * Redirects are followed here rather than by HttpURLConnection, whose intermediate responses,
+     * and so their caching headers, are not visible. Like HttpURLConnection, an http <-> https hop
+     * is not followed unless allowCrossProtocolRedirects; its response is returned instead.
+     */
+    private HttpURLConnection followRedirects(URL url, byte[] postBody, long position, long length,
+                                              boolean allowGzip, String cacheKey)
+            throws IOException {
+        int redirectCount = 0;
+        long redirectTtlMs = Long.MAX_VALUE;
+        while (redirectCount++ <= MAX_REDIRECTS) {
+            HttpURLConnection connection =
+                    makeConnection(url, postBody, position, length, allowGzip);
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_MULT_CHOICE
+                    || responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                    || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                    || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                    || (postBody == null && (responseCode == 307 || responseCode == 308))) {
+                // For 300-303 we switch to GET, for 307/308 we only follow GET requests
+                URL target;
+                try {
+                    target = handleRedirect(url, connection.getHeaderField("Location"));
+                } catch (IOException e) {
+                    releaseConnection(connection);
+                    throw e;
+                }
+                if (!allowCrossProtocolRedirects
+                        && !target.getProtocol().equals(url.getProtocol())) {
+                    return connection;
+                }
+                postBody = null;
+                redirectTtlMs = Math.min(redirectTtlMs,
+                        RedirectCache.getTtlMs(connection, responseCode));
+                releaseConnection(connection);
+                url = target;
+            } else {
+                if (cacheKey != null && redirectCount > 1
+                        && responseCode >= 200 && responseCode <= 299) {
+                    RedirectCache.put(cacheKey, url.toString(), redirectTtlMs);
+                }
+                return connection;
+            }
+        }
+        throw new NoRouteToHostException("Too many redirects: " + redirectCount);
+    }
+
+    private HttpURLConnection makeConnection(URL url, byte[] postBody, long position, long length,
+                                             boolean allowGzip)
+            throws IOException {
+        HttpURLConnection connection = HttpConnectionPool.openConnection(url);
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        synchronized (requestProperties) {
+            for (Map.Entry<String, String> property : requestProperties.entrySet()) {
+                connection.setRequestProperty(property.getKey(), property.getValue());
+            }
+        }
+        if (!(position == 0 && length == C.LENGTH_UNBOUNDED)) {
+            String rangeRequest = "bytes=" + position + "-";
+            if (length != C.LENGTH_UNBOUNDED) {
+                rangeRequest += (position + length - 1);
+            }
+            connection.setRequestProperty("Range", rangeRequest);
+        }
+        connection.setRequestProperty("User-Agent", userAgent);
+        if (!allowGzip) {
+            connection.setRequestProperty("Accept-Encoding", "identity");
+        }
+        connection.setInstanceFollowRedirects(false);
+        connection.setDoOutput(postBody != null);
+        long connectStartMs = SystemClock.elapsedRealtime();
+        if (postBody != null) {
+            connection.setFixedLengthStreamingMode(postBody.length);
+            connection.connect();
+            connectMs += SystemClock.elapsedRealtime() - connectStartMs;
+            OutputStream os = connection.getOutputStream();
+            os.write(postBody);
+            os.close();
+        } else {
+            connection.connect();
+            connectMs += SystemClock.elapsedRealtime() - connectStartMs;
+        }
+        return connection;
+    }
+
+    private static URL handleRedirect(URL originalUrl, String location) throws IOException {
+        if (location == null) {
+            throw new ProtocolException("Null location redirect");
+        }
+        URL url = new URL(originalUrl, location);
+        String protocol = url.getProtocol();
+        if (!"https".equals(protocol) && !"http".equals(protocol)) {
+            throw new ProtocolException("Unsupported protocol redirect: " + protocol);
+        }
+        return url;
+    }
+
+    private static long getContentLength(HttpURLConnection connection) {
+        long contentLength = C.LENGTH_UNBOUNDED;
+        String contentLengthHeader = connection.getHeaderField("Content-Length");
+        if (!TextUtils.isEmpty(contentLengthHeader)) {
+            try {
+                contentLength = Long.parseLong(contentLengthHeader);
+            } catch (NumberFormatException e) {
+                Log.e(LOGTAG, "Unexpected Content-Length [" + contentLengthHeader + "]");
+            }
+        }
+        String contentRangeHeader = connection.getHeaderField("Content-Range");
+        if (!TextUtils.isEmpty(contentRangeHeader)) {
+            Matcher matcher = CONTENT_RANGE_HEADER.matcher(contentRangeHeader);
+            if (matcher.find()) {
+                try {
+                    long contentLengthFromRange =
+                            Long.parseLong(matcher.group(2)) - Long.parseLong(matcher.group(1)) + 1;
+                    if (contentLength < 0) {
+                        // Some proxies strip Content-Length, fall back to Content-Range
+                        contentLength = contentLengthFromRange;
+                    } else if (contentLength != contentLengthFromRange) {
+                        Log.w(LOGTAG, "Inconsistent headers [" + contentLengthHeader + "] ["
+                                + contentRangeHeader + "]");
+                        contentLength = Math.max(contentLength, contentLengthFromRange);
+                    }
+                } catch (NumberFormatException e) {
+                    Log.e(LOGTAG, "Unexpected Content-Range [" + contentRangeHeader + "]");
+                }
+            }
+        }
+        return contentLength;
+    }
+
+    private void skipInternal() throws IOException {
+        if (bytesSkipped == bytesToSkip) {
+            return;
+        }
+        while (bytesSkipped != bytesToSkip) {
+            int readLength = (int) Math.min(bytesToSkip - bytesSkipped, skipBuffer.length);
+            int read = inputStream.read(skipBuffer, 0, readLength);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
+            }
+            if (read == -1) {
+                throw new EOFException();
+            }
+            bytesSkipped += read;
+            if (listener != null) {
+                listener.onBytesTransferred(read);
+            }
+        }
+    }
+
+    private int readInternal(byte[] buffer, int offset, int readLength) throws IOException {
+        readLength = bytesToRead == C.LENGTH_UNBOUNDED ? readLength
+                : (int) Math.min(readLength, bytesToRead - bytesRead);
+        if (readLength == 0) {
+            endOfInput = true;
+            return C.RESULT_END_OF_INPUT;
+        }
+        int read = inputStream.read(buffer, offset, readLength);
+        if (read == -1) {
+            if (bytesToRead != C.LENGTH_UNBOUNDED && bytesToRead != bytesRead) {
+                // Connection closed before the expected number of bytes arrived
+                throw new EOFException();
+            }
+            endOfInput = true;
+            return C.RESULT_END_OF_INPUT;
+        }
+        bytesRead += read;
+        if (listener != null) {
+            listener.onBytesTransferred(read);
+        }
+        return read;
+    }
+
+    /**
+     * Returns the connection of a successful response to the pool if the body was read to its end
+     * or the rest of it is short enough to drain, otherwise drops it.
+     */
+    private void releaseBody() throws IOException {
+        if (canceled) {
+            discardConnection();
+            return;
+        }
+        if (endOfInput) {
+            // Also for chunked and gzipped bodies, whose length is not known up front
+            inputStream.close();
+            return;
+        }
+        long remaining = bytesRemaining();
+        if (bytesSkipped != bytesToSkip || remaining == C.LENGTH_UNBOUNDED
+                || remaining > MAX_DRAIN_BYTES) {
+            // Draining would cost more than a new connection
+            discardConnection();
+            return;
+        }
+        while (remaining > 0) {
+            int read = inputStream.read(skipBuffer, 0, (int) Math.min(remaining, skipBuffer.length));
+            if (read == -1) {
+                break;
+            }
+            remaining -= read;
+        }
+        inputStream.close();
+    }
+
+    /**
+     * Releases the body of an error response so the connection can be reused, or drops the
+     * connection if the body is longer than {@link #MAX_DRAIN_BYTES}.
+     */
+    private void releaseErrorBody() {
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+            try {
+                long drained = 0;
+                int read;
+                while ((read = errorStream.read(skipBuffer)) != -1) {
+                    drained += read;
+                    if (drained > MAX_DRAIN_BYTES) {
+                        discardConnection();
+                        return;
+                    }
+                }
+                errorStream.close();
+            } catch (IOException e) {
+                discardConnection();
+                return;
+            }
+        }
+        connection = null;
+    }
+
+    private static void releaseConnection(HttpURLConnection connection) throws IOException {
+        InputStream body = connection.getErrorStream();
+        if (body == null) {
+            try {
+                body = connection.getInputStream();
+            } catch (IOException e) {
+                connection.disconnect();
+                return;
+            }
+        }
+        body.close();
+    }
+
+    private void discardConnection() {
+        if (connection != null) {
+            try {
+                connection.disconnect();
+            } catch (Exception e) {
+                Log.e(LOGTAG, "Unexpected error while disconnecting", e);
+            }
+            connection = null;
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.brentvatne.react.exoplayer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Refreshes every live manifest and playlist in use, for all players, from one thread.
+ * <p/>
+ * Each {@link Feed} is refreshed a little before its update period (MPD minimumUpdatePeriod, half
+ * an HLS EXT-X-TARGETDURATION) runs out since its last load, so players asking for it find it
+ * fresh instead of loading it themselves. The lead is drawn at random up to a tenth of the period,
+ * so devices tuned to one channel do not hit the server in step, and feeds due close together are
+ * refreshed in one wakeup. A feed none of whose {@link Watcher}s wants refreshes, because its
+ * players are paused or off screen, is not refreshed and costs no wakeups until one does.
+ */
+public final class LiveRefreshScheduler {
+
+    /** A player of live feeds */
+    public interface Watcher {
+        /** Whether feeds this watcher uses should be kept fresh, e.g. it is playing on screen */
+        boolean isRefreshWanted();
+    }
+
+    /** Something live that is refreshed on a schedule, on the scheduler thread */
+    public abstract static class Feed {
+
+        /** Weakly held, a player that is gone wants nothing. Guarded by the scheduler. */
+        private final Set<Watcher> watchers =
+                Collections.newSetFromMap(new WeakHashMap<Watcher, Boolean>());
+        private long leadMs = -1;
+        private long lastRefreshMs;
+
+        /** Time in ms between refreshes, or 0 if there is nothing to refresh (not live) */
+        protected abstract long getUpdatePeriodMs();
+
+        /** {@link SystemClock#elapsedRealtime()} of the start of the last load */
+        protected abstract long getLastLoadMs();
+
+        /** Starts a refresh. Called on the scheduler thread. */
+        protected abstract void refresh();
+
+        /** Whether the feed is of no more use and should be removed */
+        protected boolean isExpired() {
+            return false;
+        }
+
+    }
+
+    /** Least time between two refreshes of a feed, for refreshes that did not start a load */
+    private static final long MIN_REFRESH_INTERVAL_MS = 1000;
+    /** Feeds due within this window of the next one are refreshed in the same wakeup */
+    private static final long BATCH_WINDOW_MS = 250;
+    private static final int MAX_LEAD_DIVISOR = 10;
+
+    /** Guarded by the class */
+    private static final List<Feed> feeds = new ArrayList<>();
+    private static final Random random = new Random();
+
+    private static Handler handler;
+
+    private static final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            schedule();
+        }
+    };
+
+    private LiveRefreshScheduler() {
+    }
+
+    /** Looper of the scheduler thread, which refreshes run on */
+    public static synchronized Looper getLooper() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread("LiveRefreshScheduler");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler.getLooper();
+    }
+
+    /** Starts refreshing feed for watcher, if it was not already */
+    public static void addWatcher(Feed feed, Watcher watcher) {
+        synchronized (LiveRefreshScheduler.class) {
+            if (!feeds.contains(feed)) {
+                feeds.add(feed);
+            }
+            feed.watchers.add(watcher);
+        }
+        reschedule();
+    }
+
+    /** Stops refreshing feed for watcher */
+    public static void removeWatcher(Feed feed, Watcher watcher) {
+        synchronized (LiveRefreshScheduler.class) {
+            feed.watchers.remove(watcher);
+        }
+        reschedule();
+    }
+
+    /** Stops refreshing feed altogether */
+    public static void remove(Feed feed) {
+        synchronized (LiveRefreshScheduler.class) {
+            feeds.remove(feed);
+        }
+    }
+
+    /** Whether a watcher of feed wants refreshes */
+    public static synchronized boolean isRefreshWanted(Feed feed) {
+        for (Watcher watcher : feed.watchers) {
+            if (watcher.isRefreshWanted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-evaluates the schedule, after a feed's update period or a watcher's wish for refreshes
+     * changed.
+     */
+    public static void reschedule() {
+        getLooper();
+        handler.removeCallbacks(tick);
+        handler.post(tick);
+    }
+
+    /** Refreshes the feeds that are due and waits for the next one */
+    private static void schedule() {
+        List<Feed> due = new ArrayList<>();
+        synchronized (LiveRefreshScheduler.class) {
+            long nowMs = SystemClock.elapsedRealtime();
+            for (int i = feeds.size() - 1; i >= 0; i--) {
+                Feed feed = feeds.get(i);
+                if (feed.isExpired()) {
+                    feeds.remove(i);
+                } else if (getDueMs(feed) <= nowMs + BATCH_WINDOW_MS) {
+                    due.add(feed);
+                    feed.lastRefreshMs = nowMs;
+                    feed.leadMs = -1;
+                }
+            }
+        }
+        for (Feed feed : due) {
+            feed.refresh();
+        }
+        long nextDueMs = Long.MAX_VALUE;
+        synchronized (LiveRefreshScheduler.class) {
+            for (Feed feed : feeds) {
+                nextDueMs = Math.min(nextDueMs, getDueMs(feed));
+            }
+        }
+        handler.removeCallbacks(tick);
+        if (nextDueMs != Long.MAX_VALUE) {
+            handler.postDelayed(tick, Math.max(0, nextDueMs - SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * When feed is next due for a refresh, or Long.MAX_VALUE if it is not refreshed. Called with
+     * the class lock held.
+     */
+    private static long getDueMs(Feed feed) {
+        long periodMs = feed.getUpdatePeriodMs();
+        if (periodMs <= 0 || !isRefreshWanted(feed)) {
+            return Long.MAX_VALUE;
+        }
+        if (feed.leadMs < 0) {
+            feed.leadMs = (long) (random.nextDouble() * periodMs / MAX_LEAD_DIVISOR);
+        }
+        return Math.max(feed.getLastLoadMs() + periodMs - feed.leadMs,
+                feed.lastRefreshMs + MIN_REFRESH_INTERVAL_MS);
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.brentvatne.react.exoplayer;
+
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the durations of the most recent chunk loads of a player, per source.
+ * <p/>
+ * Fed from {@link ExoPlayerWrapper#onLoadCompleted} on the main thread and queried from loader
+ * threads by {@link HedgingDataSource}.
+ */
+public class LoadTimeTracker {
+
+    private static final int MAX_SAMPLES = 32;
+    /** Percentiles of fewer samples are too noisy to act on */
+    private static final int MIN_SAMPLES = 8;
+
+    private static final class Samples {
+        final long[] durationsMs = new long[MAX_SAMPLES];
+        int count;
+        int next;
+    }
+
+    private final SparseArray<Samples> samplesBySource = new SparseArray<>();
+
+    public synchronized void add(int sourceId, long loadDurationMs) {
+        Samples samples = samplesBySource.get(sourceId);
+        if (samples == null) {
+            samples = new Samples();
+            samplesBySource.put(sourceId, samples);
+        }
+        samples.durationsMs[samples.next] = loadDurationMs;
+        samples.next = (samples.next + 1) % MAX_SAMPLES;
+        samples.count = Math.min(samples.count + 1, MAX_SAMPLES);
+    }
+
+    /**
+     * Returns the load duration below which the given fraction of recent loads of sourceId
+     * completed, or -1 if there are not enough samples yet.
+     */
+    public synchronized long getPercentileMs(int sourceId, float percentile) {
+        Samples samples = samplesBySource.get(sourceId);
+        if (samples == null || samples.count < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples.durationsMs, samples.count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public synchronized void reset() {
+        samplesBySource.clear();
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.brentvatne.react.exoplayer;
+
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Process-wide cache of parsed HLS playlists and DASH manifests, keyed by url.
+ * <p/>
+ * Every prepare of a player loads its manifest anew, so a re-prepare after a seek or an audio
+ * capabilities change would otherwise download and parse it again. Entries are only ever used
+ * after the server confirmed them with a 304 to a conditional request (see
+ * {@link RevalidatingManifestDataSource}), so they are never stale. The cache holds at most
+ * {@link #MAX_ENTRIES} manifests and {@link #MAX_BYTES} bytes, measured by the size of the source
+ * text, evicting the least recently used first.
+ */
+public final class ManifestCache {
+
+    private static final String LOGTAG = ManifestCache.class.getSimpleName();
+
+    public static final int MAX_ENTRIES = 16;
+    public static final long MAX_BYTES = 2 * 1024 * 1024;
+
+    /** A parsed manifest and the validators of the response it was parsed from */
+    static final class Entry {
+        final Object manifest;
+        /** Null if the response had none, as is lastModified */
+        final String etag;
+        final String lastModified;
+        final long size;
+
+        Entry(Object manifest, String etag, String lastModified, long size) {
+            this.manifest = manifest;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static long totalBytes;
+    private static volatile boolean enabled = true;
+
+    private ManifestCache() {
+    }
+
+    static synchronized Entry get(String url) {
+        return enabled ? entries.get(url) : null;
+    }
+
+    static synchronized void put(String url, Entry entry) {
+        if (!enabled || entry.size > MAX_BYTES) {
+            return;
+        }
+        Entry previous = entries.put(url, entry);
+        if (previous != null) {
+            totalBytes -= previous.size;
+        }
+        totalBytes += entry.size;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES || totalBytes > MAX_BYTES) {
+            totalBytes -= iterator.next().size;
+            iterator.remove();
+        }
+        Log.d(LOGTAG, "put(): " + url + "; entries: " + entries.size() + ", bytes: " + totalBytes);
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /** Enables or disables the cache, dropping its contents when disabled */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+        if (!enable) {
+            clear();
+        }
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Serves local files, assets and raw resources from a memory mapping instead of stream reads.
+ * <p/>
+ * The mapping outlives {@link #close()} so a re-open of the same uri at another position (which
+ * is how extractors seek) is served without touching the file again, unless the file was replaced
+ * since. It is dropped by {@link #release()}, which may be called from any thread. Regions are
+ * mapped in windows of {@link #MAX_WINDOW_SIZE} bytes to bound address space use on 32-bit
+ * devices.
+ */
+public class MappedFileDataSource implements UriDataSource {
+
+    /**
+     * Thrown by {@link #open(DataSpec)} when the source exists but cannot be mapped, e.g., an asset
+     * that was compressed when the apk was built. Callers should fall back to a stream source.
+     */
+    public static final class UnmappableSourceException extends IOException {
+
+        public UnmappableSourceException(String message, IOException cause) {
+            super(message);
+            initCause(cause);
+        }
+
+    }
+
+    private static final String SCHEME_FILE = ContentResolver.SCHEME_FILE;
+    private static final String SCHEME_ASSET = "asset";
+    private static final String SCHEME_RAW = ContentResolver.SCHEME_ANDROID_RESOURCE;
+    private static final String ANDROID_ASSET_PREFIX = "/android_asset/";
+
+    private static final long MAX_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final Context context;
+    private final TransferListener listener;
+
+    /** Uri and file version of the mapped region, kept after close so it can be reused */
+    private String mappedKey;
+    /** Region of the underlying file descriptor that backs the uri */
+    private FileInputStream mappedStream;
+    private long regionOffset;
+    private long regionLength;
+    /** Currently mapped window of the region */
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private String uri;
+    private long position;
+    private long bytesRemaining;
+    private boolean opened;
+
+    public MappedFileDataSource(Context context, TransferListener listener) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+    }
+
+    /** Can uri be served by this source? */
+    public static boolean isLocal(Uri uri) {
+        String scheme = uri.getScheme();
+        return scheme == null || SCHEME_FILE.equals(scheme) || SCHEME_ASSET.equals(scheme)
+                || SCHEME_RAW.equals(scheme);
+    }
+
+    @Override
+    public synchronized long open(DataSpec dataSpec) throws IOException {
+        String uriString = dataSpec.uri.toString();
+        String key = getMappingKey(dataSpec.uri);
+        if (!key.equals(mappedKey)) {
+            releaseMapping();
+            openRegion(dataSpec.uri);
+            mappedKey = key;
+        }
+        if (dataSpec.position > regionLength) {
+            throw new EOFException();
+        }
+        uri = uriString;
+        position = dataSpec.position;
+        bytesRemaining = dataSpec.length == C.LENGTH_UNBOUNDED ? regionLength - position
+                : Math.min(dataSpec.length, regionLength - position);
+        opened = true;
+        if (listener != null) {
+            listener.onTransferStart();
+        }
+        return bytesRemaining;
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (bytesRemaining == 0) {
+            return -1;
+        }
+        if (window == null || position < windowStart || position >= windowStart + window.capacity()) {
+            if (mappedKey == null) {
+                throw new IOException("Released while open: " + uri);
+            }
+            mapWindow(position);
+        }
+        int windowOffset = (int) (position - windowStart);
+        int bytesToRead = (int) Math.min(Math.min(readLength, bytesRemaining),
+                window.capacity() - windowOffset);
+        window.position(windowOffset);
+        window.get(buffer, offset, bytesToRead);
+        position += bytesToRead;
+        bytesRemaining -= bytesToRead;
+        if (listener != null) {
+            listener.onBytesTransferred(bytesToRead);
+        }
+        return bytesToRead;
+    }
+
+    @Override
+    public String getUri() {
+        return uri;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // Keep the mapping, a seek re-opens the same uri
+        uri = null;
+        if (opened) {
+            opened = false;
+            if (listener != null) {
+                listener.onTransferEnd();
+            }
+        }
+    }
+
+    /** Drops the retained mapping. Call when the source is no longer needed. */
+    public synchronized void release() {
+        releaseMapping();
+    }
+
+    /**
+     * Key of the mapping for uri. Files can be replaced on disk, so theirs includes the version
+     * of the file; assets and resources only change with the apk.
+     */
+    private static String getMappingKey(Uri uri) {
+        String scheme = uri.getScheme();
+        String path = uri.getPath();
+        if (SCHEME_ASSET.equals(scheme) || SCHEME_RAW.equals(scheme) || path == null
+                || path.startsWith(ANDROID_ASSET_PREFIX)) {
+            return uri.toString();
+        }
+        File file = new File(path);
+        return uri.toString() + '@' + file.lastModified() + ':' + file.length();
+    }
+
+    private void openRegion(Uri uri) throws IOException {
+        String scheme = uri.getScheme();
+        String path = uri.getPath();
+        if (SCHEME_ASSET.equals(scheme) || (path != null && path.startsWith(ANDROID_ASSET_PREFIX))) {
+            openAssetRegion(uri);
+        } else if (SCHEME_RAW.equals(scheme)) {
+            openResourceRegion(uri);
+        } else {
+            mappedStream = new FileInputStream(path);
+            regionOffset = 0;
+            regionLength = mappedStream.getChannel().size();
+        }
+    }
+
+    private void openAssetRegion(Uri uri) throws IOException {
+        String path = uri.getPath();
+        if (path.startsWith(ANDROID_ASSET_PREFIX)) {
+            path = path.substring(ANDROID_ASSET_PREFIX.length());
+        } else if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = context.getAssets().openFd(path);
+        } catch (FileNotFoundException e) {
+            // Also thrown for compressed assets
+            throw new UnmappableSourceException("Cannot map asset: " + path, e);
+        }
+        openDescriptorRegion(descriptor);
+    }
+
+    private void openResourceRegion(Uri uri) throws IOException {
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            throw new UnmappableSourceException("Cannot map resource: " + uri, e);
+        }
+        if (descriptor == null) {
+            throw new UnmappableSourceException("Cannot map resource: " + uri, null);
+        }
+        openDescriptorRegion(descriptor);
+    }
+
+    private void openDescriptorRegion(AssetFileDescriptor descriptor) throws IOException {
+        mappedStream = descriptor.createInputStream();
+        regionOffset = descriptor.getStartOffset();
+        regionLength = descriptor.getDeclaredLength();
+        if (regionLength == AssetFileDescriptor.UNKNOWN_LENGTH) {
+            regionLength = mappedStream.getChannel().size() - regionOffset;
+        }
+    }
+
+    private void mapWindow(long position) throws IOException {
+        windowStart = (position / MAX_WINDOW_SIZE) * MAX_WINDOW_SIZE;
+        long size = Math.min(MAX_WINDOW_SIZE, regionLength - windowStart);
+        window = mappedStream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                regionOffset + windowStart, size);
+        if (size == regionLength) {
+            // Whole region is mapped and the mapping stays valid without the descriptor
+            closeStream();
+        }
+    }
+
+    private void releaseMapping() {
+        window = null;
+        mappedKey = null;
+        closeStream();
+    }
+
+    private void closeStream() {
+        if (mappedStream != null) {
+            try {
+                mappedStream.close();
+            } catch (IOException e) {
+                // Ignore, nothing was written
+            } finally {
+                mappedStream = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide on-disk cache for media bytes shared by all players.
+ * <p/>
+ * Bytes are stored as spans by {@link IndexedCache} and evicted least recently used first once the
+ * cache grows past {@link #setMaxBytes(long)}. Spans can be encrypted at rest, see
+ * {@link #setEncrypted(boolean)}. Configure before the first player is created, or before
+ * {@link #warmUp(Context)}, which the RN module does when it is created. Apps pass both to the
+ * constructor of ReactVideoPackage for that reason.
+ */
+public final class MediaCache {
+
+    private static final String LOGTAG = MediaCache.class.getSimpleName();
+
+    public static final long DEFAULT_MAX_BYTES = 100 * 1024 * 1024;
+
+    private static final String CACHE_DIR_NAME = "exo_media_cache";
+    /** Encrypted spans live apart so toggling encryption never mixes the two */
+    private static final String ENCRYPTED_CACHE_DIR_NAME = "exo_media_cache_encrypted";
+    static final String INDEX_FILE_SUFFIX = ".index";
+
+    private static final int MAX_CONTENT_LENGTHS = 1024;
+
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static boolean enabled = true;
+    private static boolean encrypted;
+    private static Cache cache;
+
+    /** Lengths of resources read to their end, by cache key. Guarded by itself. */
+    private static final LinkedHashMap<String, Long> contentLengths =
+            new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > MAX_CONTENT_LENGTHS;
+                }
+            };
+
+    private MediaCache() {
+    }
+
+    /** Sets the size limit of the cache. Has no effect once the cache has been created. */
+    public static synchronized void setMaxBytes(long bytes) {
+        if (cache != null && bytes != maxBytes) {
+            Log.w(LOGTAG, "setMaxBytes(): cache already created, ignoring " + bytes);
+            return;
+        }
+        maxBytes = bytes;
+    }
+
+    public static synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets whether cached and downloaded bytes are encrypted on disk (see {@link CacheEncryption}).
+     * Has no effect once the cache has been created.
+     */
+    public static synchronized void setEncrypted(boolean encrypt) {
+        if (cache != null && encrypt != encrypted) {
+            Log.w(LOGTAG, "setEncrypted(): cache already created, ignoring " + encrypt);
+            return;
+        }
+        encrypted = encrypt;
+    }
+
+    public static synchronized boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * Returns the encryption to read and write spans with.
+     *
+     * @return The encryption, or null if spans are stored in the clear, or if the key could not be
+     *         loaded, in which case nothing must be stored (see {@link #isEncrypted()}).
+     */
+    public static CacheEncryption getEncryption(Context context) {
+        if (!isEncrypted()) {
+            return null;
+        }
+        try {
+            return CacheEncryption.getInstance(context);
+        } catch (IOException e) {
+            Log.e(LOGTAG, "getEncryption(): could not load key", e);
+            return null;
+        }
+    }
+
+    /** Enables or disables caching for players created from now on */
+    public static synchronized void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * Returns the shared cache, creating it on first use.
+     *
+     * @return The cache, or null if caching is disabled or the encryption key is unavailable.
+     */
+    public static synchronized Cache getCache(Context context) {
+        if (!enabled) {
+            return null;
+        }
+        if (cache == null) {
+            File parentDir = context.getApplicationContext().getCacheDir();
+            File cacheDir = new File(parentDir,
+                    encrypted ? ENCRYPTED_CACHE_DIR_NAME : CACHE_DIR_NAME);
+            File indexFile = new File(cacheDir.getPath() + INDEX_FILE_SUFFIX);
+            CacheEvictor evictor = new LeastRecentlyUsedCacheEvictor(maxBytes);
+            if (encrypted) {
+                CacheEncryption encryption = getEncryption(context);
+                if (encryption == null) {
+                    return null;
+                }
+                if (encryption.isKeyCreated()) {
+                    // Encrypted with a lost key, unreadable
+                    deleteContents(cacheDir);
+                    deleteContents(CacheEncryption.getNonceDir(cacheDir));
+                    indexFile.delete();
+                }
+                evictor = CacheEncryption.withNonceRemoval(evictor);
+            }
+            Log.d(LOGTAG, "getCache(): creating cache in " + cacheDir + "; max bytes: " + maxBytes);
+            cache = new IndexedCache(cacheDir, indexFile, evictor);
+        }
+        return cache;
+    }
+
+    /**
+     * Creates the cache ahead of the first player so its directory is scanned in the background
+     * by the time playback starts. Returns immediately.
+     */
+    public static void warmUp(Context context) {
+        getCache(context);
+    }
+
+    /**
+     * Key under which bytes for a request are cached.
+     * <p/>
+     * We always key on the uri. {@link DataSpec#key} is not used since DASH sets it per
+     * representation, which would collide for every segment of a SegmentTemplate.
+     */
+    public static String getKey(Uri uri) {
+        return uri.toString();
+    }
+
+    /** Returns a copy of dataSpec with its key set to {@link #getKey(Uri)} */
+    public static DataSpec withKey(DataSpec dataSpec) {
+        return new DataSpec(dataSpec.uri, dataSpec.postBody, dataSpec.absoluteStreamPosition,
+                dataSpec.position, dataSpec.length, getKey(dataSpec.uri), dataSpec.flags);
+    }
+
+    /** Records the length of the resource under key, as found by reading it to its end */
+    static void setContentLength(String key, long length) {
+        synchronized (contentLengths) {
+            contentLengths.put(key, length);
+        }
+    }
+
+    /**
+     * Whether the whole range of uri is in cache. An unbounded range only counts as cached once
+     * the length of the resource is known, from an earlier read to its end.
+     */
+    public static boolean isCached(Cache cache, Uri uri, long position, long length) {
+        String key = getKey(uri);
+        if (length == C.LENGTH_UNBOUNDED) {
+            Long contentLength;
+            synchronized (contentLengths) {
+                contentLength = contentLengths.get(key);
+            }
+            if (contentLength == null) {
+                return false;
+            }
+            length = contentLength - position;
+        }
+        return length <= 0 || cache.isCached(key, position, length);
+    }
+
+    /** Deletes the files in dir, leaving dir itself */
+    static void deleteContents(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Is dataSpec a request for a manifest, playlist or key rather than media? ExoPlayer only
+     * allows gzip for those, whatever their url looks like. Live manifests and playlists change on
+     * every reload, so they are never served from the cache.
+     */
+    public static boolean isManifestRequest(DataSpec dataSpec) {
+        return (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0;
+    }
+
+    /** Is the scheme one whose responses we store in the cache? */
+    public static boolean isCacheable(Uri uri) {
+        String scheme = uri.getScheme();
+        return "http".equals(scheme) || "https".equals(scheme);
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.dash.DashTrackSelector;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Selects only the representations of a {@link Download} in adaptation sets of one type, so
+ * playback never switches to a representation that is not stored. Falls back to another
+ * selector for periods without a downloaded representation.
+ */
+public class OfflineDashTrackSelector implements DashTrackSelector {
+
+    private final int adaptationSetType;
+    private final Set<String> representationIds;
+    private final DashTrackSelector fallback;
+
+    public OfflineDashTrackSelector(int adaptationSetType, Set<String> representationIds,
+                                    DashTrackSelector fallback) {
+        this.adaptationSetType = adaptationSetType;
+        this.representationIds = representationIds;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void selectTracks(MediaPresentationDescription manifest, int periodIndex, Output output)
+            throws IOException {
+        Period period = manifest.getPeriod(periodIndex);
+        boolean selected = false;
+        for (int i = 0; i < period.adaptationSets.size(); i++) {
+            AdaptationSet adaptationSet = period.adaptationSets.get(i);
+            if (adaptationSet.type != adaptationSetType) {
+                continue;
+            }
+            List<com.google.android.exoplayer.dash.mpd.Representation> representations =
+                    adaptationSet.representations;
+            for (int j = 0; j < representations.size(); j++) {
+                if (representationIds.contains(representations.get(j).format.id)) {
+                    output.fixedTrack(manifest, periodIndex, i, j);
+                    selected = true;
+                }
+            }
+        }
+        if (!selected) {
+            fallback.selectTracks(manifest, periodIndex, output);
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.brentvatne.react.exoplayer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCrypto;
+import android.media.MediaDrm;
+import android.util.Log;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmInitData.SchemeInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+
+/**
+ * Opens Widevine sessions with the keys of a stored offline license for the content's init data
+ * when there is one (see {@link OfflineLicenses}), and through streamingManager, which asks the
+ * license server, when there is not. In that case an offline license is requested in the
+ * background for the next time.
+ * <p/>
+ * Restoring keys is a local operation, so it happens on the playback thread in {@link #open}, and
+ * the session is opened with keys right away.
+ */
+@TargetApi(18)
+final class OfflineDrmSessionManager implements DrmSessionManager {
+
+    private static final String LOGTAG = OfflineDrmSessionManager.class.getSimpleName();
+
+    final StreamingDrmSessionManager streamingManager;
+
+    private final Context context;
+    private final String contentId;
+    private final MediaDrmCallback drmCallback;
+
+    // Set while a session restored from an offline license is open. Accessed on the playback
+    // thread.
+    private MediaDrm mediaDrm;
+    private byte[] sessionId;
+    private MediaCrypto mediaCrypto;
+
+    OfflineDrmSessionManager(Context context, String contentId, MediaDrmCallback drmCallback,
+                             StreamingDrmSessionManager streamingManager) {
+        this.context = context.getApplicationContext();
+        this.contentId = contentId;
+        this.drmCallback = drmCallback;
+        this.streamingManager = streamingManager;
+    }
+
+    @Override
+    public void open(DrmInitData drmInitData) {
+        SchemeInitData initData = drmInitData.get(StreamingDrmSessionManager.WIDEVINE_UUID);
+        if (initData == null) {
+            streamingManager.open(drmInitData);
+            return;
+        }
+        // Null as well if the keys were rotated since the license was obtained
+        byte[] keySetId = OfflineLicenses.getKeySetId(context, contentId, initData);
+        if (keySetId != null) {
+            if (restore(keySetId)) {
+                OfflineLicenses.renewIfDue(context, contentId, drmCallback);
+                return;
+            }
+            OfflineLicenses.remove(context, contentId, drmCallback);
+        }
+        streamingManager.open(drmInitData);
+        OfflineLicenses.acquire(context, contentId, initData, drmCallback);
+    }
+
+    /** Opens a session with the keys of keySetId, returns whether it worked */
+    private boolean restore(byte[] keySetId) {
+        try {
+            mediaDrm = new MediaDrm(StreamingDrmSessionManager.WIDEVINE_UUID);
+            sessionId = mediaDrm.openSession();
+            mediaDrm.restoreKeys(sessionId, keySetId);
+            mediaCrypto = new MediaCrypto(StreamingDrmSessionManager.WIDEVINE_UUID, sessionId);
+            Log.d(LOGTAG, "open(): restored offline keys for " + contentId);
+            return true;
+        } catch (Exception e) {
+            Log.w(LOGTAG, "open(): could not restore offline keys for " + contentId, e);
+            closeRestored();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mediaDrm != null) {
+            closeRestored();
+        } else {
+            streamingManager.close();
+        }
+    }
+
+    private void closeRestored() {
+        if (mediaCrypto != null) {
+            mediaCrypto.release();
+            mediaCrypto = null;
+        }
+        if (sessionId != null) {
+            mediaDrm.closeSession(sessionId);
+            sessionId = null;
+        }
+        if (mediaDrm != null) {
+            mediaDrm.release();
+            mediaDrm = null;
+        }
+    }
+
+    @Override
+    public int getState() {
+        return mediaDrm != null ? STATE_OPENED_WITH_KEYS : streamingManager.getState();
+    }
+
+    @Override
+    public MediaCrypto getMediaCrypto() {
+        return mediaDrm != null ? mediaCrypto : streamingManager.getMediaCrypto();
+    }
+
+    @Override
+    public boolean requiresSecureDecoderComponent(String mimeType) {
+        return mediaDrm != null ? mediaCrypto.requiresSecureDecoderComponent(mimeType)
+                : streamingManager.requiresSecureDecoderComponent(mimeType);
+    }
+
+    @Override
+    public Exception getError() {
+        return mediaDrm != null ? null : streamingManager.getError();
+    }
+
+}
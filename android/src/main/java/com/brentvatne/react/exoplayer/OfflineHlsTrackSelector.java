@@ -0,0 +1,34 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsTrackSelector;
+import com.google.android.exoplayer.hls.Variant;
+
+import java.io.IOException;
+
+/**
+ * Selects only the variant of a {@link Download}, so playback never switches to a variant that
+ * is not stored. Falls back to another selector if the variant is not in the playlist.
+ */
+public class OfflineHlsTrackSelector implements HlsTrackSelector {
+
+    private final String variantUrl;
+    private final HlsTrackSelector fallback;
+
+    public OfflineHlsTrackSelector(String variantUrl, HlsTrackSelector fallback) {
+        this.variantUrl = variantUrl;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void selectTracks(HlsMasterPlaylist playlist, Output output) throws IOException {
+        for (Variant variant : playlist.variants) {
+            if (variant.url.equals(variantUrl)) {
+                output.fixedTrack(playlist, variant);
+                return;
+            }
+        }
+        fallback.selectTracks(playlist, output);
+    }
+
+}
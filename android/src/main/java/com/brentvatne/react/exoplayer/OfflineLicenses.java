@@ -0,0 +1,339 @@
+package com.brentvatne.react.exoplayer;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaDrm;
+import android.media.NotProvisionedException;
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.android.exoplayer.drm.DrmInitData.SchemeInitData;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Offline Widevine licenses, stored by content id and only used for the init data (PSSH) they
+ * were obtained for, so a license of keys that have since been rotated is replaced rather than
+ * restored.
+ * <p/>
+ * A license is requested from the license server through the player's {@link MediaDrmCallback}
+ * on a background thread, the first time protected content is played and again once three
+ * quarters of its duration have passed. Players then restore its keys from local storage (see
+ * {@link OfflineDrmSessionManager}), so the license server is off the startup path, and content
+ * that was downloaded plays without network. Apps that download protected content can call
+ * {@link #acquire} up front. A request that fails, e.g. because the license policy does not
+ * allow persisting keys, is not repeated for {@link #RETRY_AFTER_FAILURE_MS}.
+ * <p/>
+ * The key set ids the DRM plugin returns are kept, with their expiry and the init data needed to
+ * renew them, in a JSON file in app storage. A license that is replaced or removed is released
+ * with the license server first, so the plugin does not keep its keys around.
+ */
+@TargetApi(18)
+public final class OfflineLicenses {
+
+    private static final String LOGTAG = OfflineLicenses.class.getSimpleName();
+
+    private static final UUID WIDEVINE_UUID = StreamingDrmSessionManager.WIDEVINE_UUID;
+    private static final String FILE_NAME = "drm_licenses.json";
+    /** Licenses this close to expiry are not used, playback could outlast them */
+    private static final long MIN_REMAINING_MS = 5 * 60 * 1000;
+    /** How long a failed request is not repeated, streaming licenses work meanwhile */
+    private static final long RETRY_AFTER_FAILURE_MS = 12 * 60 * 60 * 1000;
+    private static final String PROPERTY_LICENSE_DURATION = "LicenseDurationRemaining";
+
+    private static final String FIELD_KEY_SET_ID = "keySetId";
+    private static final String FIELD_OBTAINED_AT = "obtainedAtMs";
+    private static final String FIELD_EXPIRES_AT = "expiresAtMs";
+    private static final String FIELD_MIME_TYPE = "mimeType";
+    private static final String FIELD_INIT_DATA = "initData";
+    private static final String FIELD_FAILED_AT = "failedAtMs";
+
+    /** Licenses by content id, loaded on first use. Guarded by the class. */
+    private static JSONObject licenses;
+    private static File file;
+    /** Content ids whose license is being requested. Guarded by the class. */
+    private static final Set<String> pending = new HashSet<>();
+
+    /** Requests licenses and writes the file, one at a time */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private OfflineLicenses() {
+    }
+
+    /**
+     * Returns the key set id of a license for contentId and initData that is good to play now, or
+     * null.
+     */
+    public static synchronized byte[] getKeySetId(Context context, String contentId,
+                                                  SchemeInitData initData) {
+        JSONObject license = getLicense(context, contentId, initData);
+        if (license == null || System.currentTimeMillis() + MIN_REMAINING_MS
+                > license.optLong(FIELD_EXPIRES_AT)) {
+            return null;
+        }
+        return getKeySetId(license);
+    }
+
+    /**
+     * Requests an offline license for contentId in the background, unless a stored one for
+     * initData is not yet due for renewal, or the last request failed recently.
+     */
+    public static void acquire(Context context, final String contentId,
+                               final SchemeInitData initData, final MediaDrmCallback callback) {
+        final Context appContext = context.getApplicationContext();
+        synchronized (OfflineLicenses.class) {
+            if (!isRenewalDue(getLicense(appContext, contentId, initData))
+                    || !pending.add(contentId)) {
+                return;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    request(appContext, contentId, initData.mimeType, initData.data, callback);
+                } catch (Exception e) {
+                    Log.w(LOGTAG, "acquire(): failed for " + contentId, e);
+                    onRequestFailed(appContext, contentId, initData);
+                } finally {
+                    synchronized (OfflineLicenses.class) {
+                        pending.remove(contentId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Renews the license of contentId in the background if it is due, with the init data it was
+     * obtained for.
+     */
+    public static void renewIfDue(Context context, String contentId, MediaDrmCallback callback) {
+        JSONObject license;
+        synchronized (OfflineLicenses.class) {
+            license = load(context).optJSONObject(contentId);
+        }
+        if (license != null && isRenewalDue(license)) {
+            byte[] initData = Base64.decode(license.optString(FIELD_INIT_DATA), Base64.NO_WRAP);
+            acquire(context, contentId,
+                    new SchemeInitData(license.optString(FIELD_MIME_TYPE), initData), callback);
+        }
+    }
+
+    /**
+     * Releases and forgets the license of contentId in the background, e.g. because its keys could
+     * not be restored.
+     */
+    public static void remove(Context context, String contentId,
+                              final MediaDrmCallback callback) {
+        final byte[] keySetId;
+        synchronized (OfflineLicenses.class) {
+            JSONObject license = (JSONObject) load(context).remove(contentId);
+            if (license == null) {
+                return;
+            }
+            keySetId = getKeySetId(license);
+            save();
+        }
+        if (keySetId != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    release(keySetId, callback);
+                }
+            });
+        }
+    }
+
+    /** Returns the stored license of contentId if it is for initData, otherwise null */
+    private static JSONObject getLicense(Context context, String contentId,
+                                         SchemeInitData initData) {
+        JSONObject license = load(context).optJSONObject(contentId);
+        if (license == null || !Base64.encodeToString(initData.data, Base64.NO_WRAP)
+                .equals(license.optString(FIELD_INIT_DATA))) {
+            return null;
+        }
+        return license;
+    }
+
+    /**
+     * Remembers when a request for contentId and initData failed, keeping a stored license for
+     * them as it is.
+     */
+    private static synchronized void onRequestFailed(Context context, String contentId,
+                                                     SchemeInitData initData) {
+        JSONObject license = getLicense(context, contentId, initData);
+        try {
+            if (license == null) {
+                license = new JSONObject();
+                license.put(FIELD_MIME_TYPE, initData.mimeType);
+                license.put(FIELD_INIT_DATA,
+                        Base64.encodeToString(initData.data, Base64.NO_WRAP));
+                load(context).put(contentId, license);
+            }
+            license.put(FIELD_FAILED_AT, System.currentTimeMillis());
+        } catch (JSONException e) {
+            Log.e(LOGTAG, "onRequestFailed(): failed for " + contentId, e);
+            return;
+        }
+        save();
+    }
+
+    /** Whether a license should be requested, given the stored one or null */
+    private static boolean isRenewalDue(JSONObject license) {
+        if (license == null) {
+            return true;
+        }
+        long nowMs = System.currentTimeMillis();
+        long failedAtMs = license.optLong(FIELD_FAILED_AT, -1);
+        if (failedAtMs >= 0 && nowMs >= failedAtMs && nowMs < failedAtMs + RETRY_AFTER_FAILURE_MS) {
+            return false;
+        }
+        if (!license.has(FIELD_KEY_SET_ID)) {
+            return true;
+        }
+        long obtainedAtMs = license.optLong(FIELD_OBTAINED_AT);
+        long expiresAtMs = license.optLong(FIELD_EXPIRES_AT);
+        if (expiresAtMs == Long.MAX_VALUE) {
+            return false;
+        }
+        return nowMs > obtainedAtMs + (expiresAtMs - obtainedAtMs) / 4 * 3;
+    }
+
+    /** Requests a license and stores it. Runs on the executor. */
+    private static void request(Context context, String contentId, String mimeType,
+                                byte[] initData, MediaDrmCallback callback) throws Exception {
+        MediaDrm mediaDrm = new MediaDrm(WIDEVINE_UUID);
+        try {
+            byte[] sessionId = openSession(mediaDrm, callback);
+            try {
+                MediaDrm.KeyRequest keyRequest = mediaDrm.getKeyRequest(sessionId, initData,
+                        mimeType, MediaDrm.KEY_TYPE_OFFLINE, null);
+                byte[] response = callback.executeKeyRequest(WIDEVINE_UUID, keyRequest);
+                byte[] keySetId = mediaDrm.provideKeyResponse(sessionId, response);
+                long nowMs = System.currentTimeMillis();
+                long expiresAtMs = getExpiry(mediaDrm.queryKeyStatus(sessionId), nowMs);
+                JSONObject license = new JSONObject();
+                license.put(FIELD_KEY_SET_ID, Base64.encodeToString(keySetId, Base64.NO_WRAP));
+                license.put(FIELD_OBTAINED_AT, nowMs);
+                license.put(FIELD_EXPIRES_AT, expiresAtMs);
+                license.put(FIELD_MIME_TYPE, mimeType);
+                license.put(FIELD_INIT_DATA, Base64.encodeToString(initData, Base64.NO_WRAP));
+                byte[] replacedKeySetId;
+                synchronized (OfflineLicenses.class) {
+                    replacedKeySetId = getKeySetId(load(context).optJSONObject(contentId));
+                    load(context).put(contentId, license);
+                    save();
+                }
+                Log.d(LOGTAG, "request(): stored license for " + contentId + ", expires in "
+                        + (expiresAtMs - nowMs) / 1000 + "s");
+                if (replacedKeySetId != null) {
+                    release(replacedKeySetId, callback);
+                }
+            } finally {
+                mediaDrm.closeSession(sessionId);
+            }
+        } finally {
+            mediaDrm.release();
+        }
+    }
+
+    /**
+     * Releases the keys of an offline license with the license server. Failures are logged only,
+     * the license is forgotten either way. Runs on the executor.
+     */
+    private static void release(byte[] keySetId, MediaDrmCallback callback) {
+        MediaDrm mediaDrm = null;
+        try {
+            mediaDrm = new MediaDrm(WIDEVINE_UUID);
+            MediaDrm.KeyRequest keyRequest = mediaDrm.getKeyRequest(keySetId, null, null,
+                    MediaDrm.KEY_TYPE_RELEASE, null);
+            byte[] response = callback.executeKeyRequest(WIDEVINE_UUID, keyRequest);
+            mediaDrm.provideKeyResponse(keySetId, response);
+        } catch (Exception e) {
+            Log.w(LOGTAG, "release(): failed", e);
+        } finally {
+            if (mediaDrm != null) {
+                mediaDrm.release();
+            }
+        }
+    }
+
+    /** Key set id of a stored license, null if there is none */
+    private static byte[] getKeySetId(JSONObject license) {
+        return license == null || !license.has(FIELD_KEY_SET_ID) ? null
+                : Base64.decode(license.optString(FIELD_KEY_SET_ID), Base64.NO_WRAP);
+    }
+
+    private static byte[] openSession(MediaDrm mediaDrm, MediaDrmCallback callback)
+            throws Exception {
+        try {
+            return mediaDrm.openSession();
+        } catch (NotProvisionedException e) {
+            MediaDrm.ProvisionRequest provisionRequest = mediaDrm.getProvisionRequest();
+            mediaDrm.provideProvisionResponse(
+                    callback.executeProvisionRequest(WIDEVINE_UUID, provisionRequest));
+            return mediaDrm.openSession();
+        }
+    }
+
+    /** Expiry of the keys in a session, Long.MAX_VALUE if they do not expire */
+    private static long getExpiry(Map<String, String> keyStatus, long nowMs) {
+        String remaining = keyStatus == null ? null : keyStatus.get(PROPERTY_LICENSE_DURATION);
+        if (remaining == null) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            long remainingSecs = Long.parseLong(remaining);
+            return remainingSecs >= Long.MAX_VALUE / 1000 - nowMs ? Long.MAX_VALUE
+                    : nowMs + remainingSecs * 1000;
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /** Called with the class lock held */
+    private static JSONObject load(Context context) {
+        if (licenses == null) {
+            file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+            licenses = new JSONObject();
+            if (file.exists()) {
+                try {
+                    licenses = new JSONObject(AtomicFiles.read(file));
+                } catch (IOException | JSONException e) {
+                    Log.w(LOGTAG, "load(): discarding unreadable " + file, e);
+                }
+            }
+        }
+        return licenses;
+    }
+
+    /** Writes the licenses in the background. Called with the class lock held. */
+    private static void save() {
+        final String json = licenses.toString();
+        final File target = file;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AtomicFiles.write(target, json);
+                } catch (IOException e) {
+                    Log.e(LOGTAG, "save(): failed for " + target, e);
+                }
+            }
+        });
+    }
+
+}
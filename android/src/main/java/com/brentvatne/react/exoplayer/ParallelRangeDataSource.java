@@ -0,0 +1,403 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource.HttpDataSourceException;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.util.Assertions;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads the range ahead of the read position over several HTTP connections at once.
+ * <p/>
+ * The requested range is split into chunks of a fixed size. Each connection fetches one chunk
+ * at a time, at most one chunk per connection plus one ahead of the chunk being read, and chunks
+ * are handed to the reader strictly in order as their bytes arrive. A single connection on a
+ * high-RTT link rarely fills the pipe; several usually do.
+ * <p/>
+ * Falls back to a single plain request when the server ignores range requests, the response may
+ * be gzipped, the request is no bigger than one chunk, or the first response has no validator
+ * (strong ETag, else Last-Modified). Every later chunk is requested with that validator in
+ * {@code If-Range}, and fails the read if it comes back as a full response or from another version,
+ * rather than splicing bytes of two versions.
+ * <p/>
+ * Each connection resumes after a drop (see {@link ResumingDataSource}) and records its requests in
+ * {@link DataSourceStats}, like the single connection of {@link DefaultUriDataSourceWrapper}.
+ */
+public class ParallelRangeDataSource implements UriDataSource, CancelableDataSource {
+
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+    private static final Pattern CONTENT_RANGE_HEADER =
+            Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+)$");
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    private static final class Chunk {
+        long start;
+        int length;
+        byte[] data;
+        int filled;
+        IOException error;
+    }
+
+    private final ResumingDataSource[] upstreams;
+    private final int chunkSize;
+    private final ExecutorService executor;
+
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private final ArrayDeque<HttpDataSource> idleUpstreams = new ArrayDeque<>();
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    private long nextChunkStart;
+    private long end;
+    private int runningTasks;
+    private boolean canceled;
+
+    private DataSpec dataSpec;
+    /** Header identifying the version of the first chunk, and its value */
+    private String validatorName;
+    private String validator;
+    /** Non-null when serving from a single plain request */
+    private HttpDataSource directUpstream;
+    private int readOffset;
+    private boolean opened;
+
+    public ParallelRangeDataSource(String userAgent, TransferListener listener, int connections) {
+        this(userAgent, listener, connections, null);
+    }
+
+    /**
+     * @param stats Per-player stats that requests are recorded in, in addition to
+     *              {@link DataSourceStats#global()}. May be null.
+     */
+    public ParallelRangeDataSource(String userAgent, TransferListener listener, int connections,
+                                   DataSourceStats stats) {
+        this(userAgent, listener, connections, DEFAULT_CHUNK_SIZE, stats);
+    }
+
+    public ParallelRangeDataSource(String userAgent, TransferListener listener, int connections,
+                                   int chunkSize, DataSourceStats stats) {
+        Assertions.checkArgument(connections > 0);
+        this.chunkSize = chunkSize;
+        upstreams = new ResumingDataSource[connections];
+        for (int i = 0; i < connections; i++) {
+            upstreams[i] = new ResumingDataSource(new InstrumentedDataSource(
+                    new KeepAliveHttpDataSource(userAgent, listener), stats));
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(connections, connections, 10,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        Assertions.checkState(!opened);
+        this.dataSpec = dataSpec;
+        synchronized (lock) {
+            canceled = false;
+        }
+        boolean gzip = (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) != 0;
+        if (gzip || dataSpec.postBody != null
+                || (dataSpec.length != C.LENGTH_UNBOUNDED && dataSpec.length <= chunkSize)) {
+            return openDirect(dataSpec);
+        }
+
+        // The first chunk also tells us the total length
+        HttpDataSource first = upstreams[0];
+        int firstLength = (int) (dataSpec.length == C.LENGTH_UNBOUNDED ? chunkSize
+                : Math.min(chunkSize, dataSpec.length));
+        first.open(rangeSpec(dataSpec.position, firstLength));
+        Map<String, List<String>> headers = first.getResponseHeaders();
+        long total = getTotalLength(headers);
+        validatorName = HEADER_ETAG;
+        validator = getHeader(headers, HEADER_ETAG);
+        if (validator == null || validator.startsWith("W/")) {
+            // If-Range only takes strong validators
+            validatorName = HEADER_LAST_MODIFIED;
+            validator = getHeader(headers, HEADER_LAST_MODIFIED);
+        }
+        if (total == C.LENGTH_UNBOUNDED || validator == null) {
+            // No Content-Range, so the server ignored the range, or no way to tell that later
+            // chunks are of the same version
+            first.close();
+            return openDirect(dataSpec);
+        }
+
+        synchronized (lock) {
+            chunks.clear();
+            idleUpstreams.clear();
+            for (int i = 1; i < upstreams.length; i++) {
+                idleUpstreams.add(upstreams[i]);
+            }
+            end = dataSpec.length == C.LENGTH_UNBOUNDED ? total
+                    : Math.min(total, dataSpec.position + dataSpec.length);
+            nextChunkStart = dataSpec.position;
+            Chunk firstChunk = nextChunk();
+            startTask(firstChunk, first, true);
+            scheduleChunks();
+        }
+        readOffset = 0;
+        opened = true;
+        return end - dataSpec.position;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (directUpstream != null) {
+            return directUpstream.read(buffer, offset, readLength);
+        }
+        synchronized (lock) {
+            Chunk chunk = chunks.peekFirst();
+            // The last chunk queued can be read out before its connection is idle again and the
+            // next chunk is queued
+            while (chunk == null && nextChunkStart < end && !canceled) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                chunk = chunks.peekFirst();
+            }
+            if (chunk == null) {
+                if (nextChunkStart < end) {
+                    throw new InterruptedIOException("Canceled");
+                }
+                return C.RESULT_END_OF_INPUT;
+            }
+            while (chunk.filled == readOffset && chunk.error == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (chunk.filled == readOffset) {
+                throw chunk.error;
+            }
+            int bytesToRead = Math.min(readLength, chunk.filled - readOffset);
+            System.arraycopy(chunk.data, readOffset, buffer, offset, bytesToRead);
+            readOffset += bytesToRead;
+            if (readOffset == chunk.length) {
+                chunks.removeFirst();
+                freeBuffers.add(chunk.data);
+                readOffset = 0;
+                scheduleChunks();
+            }
+            return bytesToRead;
+        }
+    }
+
+    @Override
+    public String getUri() {
+        return dataSpec == null ? null : dataSpec.uri.toString();
+    }
+
+    /** Fails the open or read in progress, and the chunk downloads, soon. Cleared by next open. */
+    @Override
+    public void cancel() {
+        synchronized (lock) {
+            canceled = true;
+            lock.notifyAll();
+        }
+        for (ResumingDataSource upstream : upstreams) {
+            upstream.cancel();
+        }
+    }
+
+    /**
+     * Cancels chunk downloads, dropping the connections of reads in progress, and waits for their
+     * tasks to return, since the data sources are reused by the next open. An interrupt of the
+     * caller does not cut the wait short; it is kept set for the caller afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (directUpstream != null) {
+            try {
+                directUpstream.close();
+            } finally {
+                directUpstream = null;
+                dataSpec = null;
+            }
+            return;
+        }
+        boolean running;
+        synchronized (lock) {
+            canceled = true;
+            running = runningTasks > 0;
+        }
+        if (running) {
+            // Otherwise a read in progress runs until its chunk is complete, or times out
+            for (ResumingDataSource upstream : upstreams) {
+                upstream.cancel();
+            }
+        }
+        boolean interrupted = false;
+        synchronized (lock) {
+            while (runningTasks > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            for (Chunk chunk : chunks) {
+                freeBuffers.add(chunk.data);
+            }
+            chunks.clear();
+        }
+        opened = false;
+        dataSpec = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long openDirect(DataSpec dataSpec) throws IOException {
+        directUpstream = upstreams[0];
+        return directUpstream.open(dataSpec);
+    }
+
+    private DataSpec rangeSpec(long position, int length) {
+        return new DataSpec(dataSpec.uri, null,
+                dataSpec.absoluteStreamPosition + (position - dataSpec.position), position, length,
+                dataSpec.key, dataSpec.flags);
+    }
+
+    /** Must hold lock */
+    private Chunk nextChunk() {
+        Chunk chunk = new Chunk();
+        chunk.start = nextChunkStart;
+        chunk.length = (int) Math.min(chunkSize, end - nextChunkStart);
+        byte[] data = freeBuffers.pollFirst();
+        chunk.data = data != null ? data : new byte[chunkSize];
+        nextChunkStart += chunk.length;
+        chunks.addLast(chunk);
+        return chunk;
+    }
+
+    /** Starts downloads while connections are idle and the buffered window has room. Must hold lock */
+    private void scheduleChunks() {
+        int maxChunks = upstreams.length + 1;
+        while (!canceled && nextChunkStart < end && chunks.size() < maxChunks
+                && !idleUpstreams.isEmpty()) {
+            startTask(nextChunk(), idleUpstreams.pollFirst(), false);
+        }
+    }
+
+    /** Must hold lock */
+    private void startTask(final Chunk chunk, final HttpDataSource upstream,
+                           final boolean alreadyOpen) {
+        runningTasks++;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                download(chunk, upstream, alreadyOpen);
+            }
+        });
+    }
+
+    private void download(Chunk chunk, HttpDataSource upstream, boolean alreadyOpen) {
+        try {
+            if (!alreadyOpen) {
+                openChunk(chunk, upstream);
+            }
+            int filled = 0;
+            while (filled < chunk.length) {
+                synchronized (lock) {
+                    if (canceled) {
+                        throw new InterruptedIOException("Canceled");
+                    }
+                }
+                int read = upstream.read(chunk.data, filled, chunk.length - filled);
+                if (read == C.RESULT_END_OF_INPUT) {
+                    throw new EOFException();
+                }
+                filled += read;
+                synchronized (lock) {
+                    chunk.filled = filled;
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                chunk.error = e;
+            }
+        } finally {
+            try {
+                upstream.close();
+            } catch (IOException e) {
+                // The chunk is complete or failed already
+            }
+            synchronized (lock) {
+                idleUpstreams.add(upstream);
+                runningTasks--;
+                scheduleChunks();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /** Opens the range of a chunk, if the resource is still the version of the first chunk */
+    private void openChunk(Chunk chunk, HttpDataSource upstream) throws IOException {
+        // Set on every open, a resume of the previous chunk clears it
+        DataSpec chunkSpec = rangeSpec(chunk.start, chunk.length);
+        upstream.setRequestProperty(HEADER_IF_RANGE, validator);
+        try {
+            upstream.open(chunkSpec);
+        } finally {
+            upstream.clearRequestProperty(HEADER_IF_RANGE);
+        }
+        Map<String, List<String>> headers = upstream.getResponseHeaders();
+        // A full response (200) instead of the range means If-Range did not match
+        if (getHeader(headers, HEADER_CONTENT_RANGE) == null
+                || !validator.equals(getHeader(headers, validatorName))) {
+            throw new HttpDataSourceException("Changed while reading chunks: " + chunkSpec.uri,
+                    chunkSpec, HttpDataSourceException.TYPE_OPEN);
+        }
+    }
+
+    private static long getTotalLength(Map<String, List<String>> headers) {
+        String contentRange = getHeader(headers, HEADER_CONTENT_RANGE);
+        if (contentRange == null) {
+            return C.LENGTH_UNBOUNDED;
+        }
+        Matcher matcher = CONTENT_RANGE_HEADER.matcher(contentRange);
+        return matcher.find() ? Long.parseLong(matcher.group(3)) : C.LENGTH_UNBOUNDED;
+    }
+
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+}
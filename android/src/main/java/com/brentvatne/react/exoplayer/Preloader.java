@@ -0,0 +1,312 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.Variant;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.UriLoadable;
+import com.google.android.exoplayer.util.UriUtil;
+import com.google.android.exoplayer.util.Util;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the start of a source into the {@link MediaCache} ahead of playback.
+ * <p/>
+ * Requests go through the same {@link DefaultUriDataSourceWrapper} stack as the renderer builders
+ * and with the same ranges, so the player finds the bytes in the cache. For HLS the first listed
+ * variant is used, which is the one the player starts with, or the lowest bitrate one if asked.
+ * For DASH the lowest bitrate video and audio representations are used. Progressive sources are
+ * fetched from the start. Live streams only get their manifest fetched, which still warms the
+ * connection.
+ * <p/>
+ * Preloads run one at a time on a background thread, most recent first. Beyond
+ * {@link #MAX_PENDING} waiting preloads, the oldest is dropped.
+ */
+public final class Preloader {
+
+    private static final String LOGTAG = Preloader.class.getSimpleName();
+
+    public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+    public static final long DEFAULT_DURATION_MS = 10 * 1000;
+
+    private static final int MAX_PENDING = 4;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /** Waiting preloads, most recent first. Guarded by itself. */
+    private static final ArrayDeque<Task> queue = new ArrayDeque<>();
+    /** Keys of the tasks in queue. Guarded by queue. */
+    private static final Set<String> pending = new HashSet<>();
+
+    /** Runs one task off queue per preload request, some find it emptied by drops */
+    private static final ExecutorService executor = new ThreadPoolExecutor(1, 1, 30,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private static final Runnable runNext = new Runnable() {
+        @Override
+        public void run() {
+            Task task;
+            synchronized (queue) {
+                task = queue.pollFirst();
+                if (task == null) {
+                    return;
+                }
+                pending.remove(task.key);
+            }
+            new Preloader(task.context, task.maxBytes, task.durationMs, task.lowest)
+                    .run(task.uri, ExoPlayerUtil.inferContentType(task.uri, task.type));
+        }
+    };
+
+    /** A preload waiting to run */
+    private static final class Task {
+        final Context context;
+        final String key;
+        final Uri uri;
+        final String type;
+        final long maxBytes;
+        final long durationMs;
+        final boolean lowest;
+
+        Task(Context context, Uri uri, String type, long maxBytes, long durationMs,
+             boolean lowest) {
+            this.context = context;
+            this.key = uri.toString();
+            this.uri = uri;
+            this.type = type;
+            this.maxBytes = maxBytes;
+            this.durationMs = durationMs;
+            this.lowest = lowest;
+        }
+    }
+
+    static {
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    private final UriDataSource dataSource;
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private final long maxBytes;
+    private final long durationUs;
+    private final boolean lowest;
+    private long bytesLoaded;
+
+    private Preloader(Context context, long maxBytes, long durationMs, boolean lowest) {
+        String userAgent = Util.getUserAgent(context, "ReactVideo");
+        dataSource = new DefaultUriDataSourceWrapper(context, null, userAgent,
+                MediaCache.getCache(context));
+        this.maxBytes = maxBytes;
+        this.durationUs = durationMs * 1000;
+        this.lowest = lowest;
+    }
+
+    /**
+     * Preloads uriString in the background. Ignored for non-network uris, when caching is disabled
+     * or when the same uri is already queued.
+     *
+     * @param type       Overriding file extension used to infer the content type. May be null.
+     * @param maxBytes   Stop after about this many bytes of media.
+     * @param durationMs Stop after this much media, for segmented sources.
+     * @param lowest     Use the lowest bitrate HLS variant rather than the first listed.
+     */
+    public static void preload(Context context, String uriString, String type, long maxBytes,
+                               long durationMs, boolean lowest) {
+        if (uriString == null) {
+            return;
+        }
+        Uri uri = Uri.parse(uriString);
+        if (!MediaCache.isCacheable(uri)) {
+            return;
+        }
+        ConnectionPrewarmer.prewarm(uriString);
+        Context appContext = context.getApplicationContext();
+        if (MediaCache.getCache(appContext) == null) {
+            return;
+        }
+        Task task = new Task(appContext, uri, type, maxBytes, durationMs, lowest);
+        synchronized (queue) {
+            if (!pending.add(task.key)) {
+                return;
+            }
+            queue.addFirst(task);
+            if (queue.size() > MAX_PENDING) {
+                pending.remove(queue.removeLast().key);
+            }
+        }
+        executor.execute(runNext);
+    }
+
+    private void run(Uri uri, int contentType) {
+        try {
+            switch (contentType) {
+                case Util.TYPE_HLS:
+                    preloadHls(uri);
+                    break;
+                case Util.TYPE_DASH:
+                    preloadDash(uri);
+                    break;
+                case Util.TYPE_OTHER:
+                    // Unbounded, a bounded request fails on files shorter than maxBytes
+                    load(new DataSpec(uri, 0, C.LENGTH_UNBOUNDED, null), maxBytes);
+                    break;
+                default:
+                    Log.d(LOGTAG, "run(): unsupported content type " + contentType);
+                    return;
+            }
+            Log.d(LOGTAG, "run(): preloaded " + bytesLoaded + " bytes of " + uri);
+        } catch (IOException e) {
+            // Not fatal, playback will fetch it again
+            Log.d(LOGTAG, "run(): failed for " + uri + ": " + e);
+        }
+    }
+
+    private void preloadHls(Uri uri) throws IOException {
+        HlsPlaylist playlist = loadManifest(uri, new CompactHlsPlaylistParser());
+        if (playlist instanceof HlsMasterPlaylist) {
+            List<Variant> variants = ((HlsMasterPlaylist) playlist).variants;
+            if (variants.isEmpty()) {
+                return;
+            }
+            Variant variant = variants.get(0);
+            if (lowest) {
+                for (Variant candidate : variants) {
+                    if (candidate.format.bitrate < variant.format.bitrate) {
+                        variant = candidate;
+                    }
+                }
+            }
+            playlist = loadManifest(Uri.parse(UriUtil.resolve(playlist.baseUri, variant.url)),
+                    new CompactHlsPlaylistParser());
+        }
+        if (!(playlist instanceof HlsMediaPlaylist) || ((HlsMediaPlaylist) playlist).live) {
+            return;
+        }
+        HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) playlist;
+        long loadedUs = 0;
+        for (HlsMediaPlaylist.Segment segment : mediaPlaylist.segments) {
+            if (loadedUs >= durationUs || bytesLoaded >= maxBytes) {
+                break;
+            }
+            // Same spec as HlsChunkSource, so the cached spans line up
+            Uri chunkUri = UriUtil.resolveToUri(mediaPlaylist.baseUri, segment.url);
+            load(new DataSpec(chunkUri, segment.byterangeOffset, segment.byterangeLength, null));
+            loadedUs += (long) (segment.durationSecs * C.MICROS_PER_SECOND);
+        }
+    }
+
+    private void preloadDash(Uri uri) throws IOException {
+        MediaPresentationDescription manifest =
+                loadManifest(uri, new CompactMpdParser());
+        if (manifest.dynamic || manifest.getPeriodCount() == 0) {
+            return;
+        }
+        Period period = manifest.getPeriod(0);
+        long periodDurationMs = manifest.getPeriodDuration(0);
+        long periodDurationUs = periodDurationMs == -1 ? -1 : periodDurationMs * 1000;
+        for (AdaptationSet adaptationSet : period.adaptationSets) {
+            if (adaptationSet.type == AdaptationSet.TYPE_VIDEO
+                    || adaptationSet.type == AdaptationSet.TYPE_AUDIO) {
+                Representation representation = getLowestBitrate(adaptationSet.representations);
+                if (representation != null) {
+                    preloadRepresentation(representation, periodDurationUs);
+                }
+            }
+        }
+    }
+
+    private void preloadRepresentation(Representation representation, long periodDurationUs)
+            throws IOException {
+        RangedUri initializationUri = representation.getInitializationUri();
+        if (initializationUri != null) {
+            load(initializationUri);
+        }
+        DashSegmentIndex index = representation.getIndex();
+        if (index == null) {
+            // Segment index is in the media (sidx), fetch from the start instead
+            RangedUri indexUri = representation.getIndexUri();
+            if (indexUri != null && bytesLoaded < maxBytes) {
+                load(new DataSpec(indexUri.getUri(), indexUri.start, C.LENGTH_UNBOUNDED, null),
+                        maxBytes - bytesLoaded);
+            }
+            return;
+        }
+        int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+        for (int segmentNum = index.getFirstSegmentNum();
+             lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED || segmentNum <= lastSegmentNum;
+             segmentNum++) {
+            if (index.getTimeUs(segmentNum) >= durationUs || bytesLoaded >= maxBytes) {
+                break;
+            }
+            load(index.getSegmentUrl(segmentNum));
+        }
+    }
+
+    private static Representation getLowestBitrate(List<Representation> representations) {
+        Representation lowest = null;
+        for (Representation representation : representations) {
+            if (lowest == null || representation.format.bitrate < lowest.format.bitrate) {
+                lowest = representation;
+            }
+        }
+        return lowest;
+    }
+
+    private <T> T loadManifest(Uri uri, UriLoadable.Parser<T> parser) throws IOException {
+        UriLoadable<T> loadable = new UriLoadable<>(uri.toString(), dataSource, parser);
+        try {
+            loadable.load();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        return loadable.getResult();
+    }
+
+    private void load(RangedUri rangedUri) throws IOException {
+        load(new DataSpec(rangedUri.getUri(), rangedUri.start, rangedUri.length, null));
+    }
+
+    /** Reads dataSpec through the cache, discarding the bytes */
+    private void load(DataSpec dataSpec) throws IOException {
+        load(dataSpec, Long.MAX_VALUE);
+    }
+
+    /** Reads dataSpec through the cache, discarding the bytes, until maxLength bytes were read */
+    private void load(DataSpec dataSpec, long maxLength) throws IOException {
+        try {
+            dataSource.open(dataSpec);
+            long loaded = 0;
+            int read;
+            while (loaded < maxLength && (read = dataSource.read(readBuffer, 0,
+                    (int) Math.min(readBuffer.length, maxLength - loaded)))
+                    != C.RESULT_END_OF_INPUT) {
+                loaded += read;
+                bytesLoaded += read;
+            }
+        } finally {
+            dataSource.close();
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.brentvatne.react.exoplayer;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.util.Assertions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads upstream into a bounded ring buffer on a pooled thread while the caller consumes it.
+ * <p/>
+ * Lets network I/O overlap extractor parsing on the loader thread. {@link #open(DataSpec)} opens
+ * upstream on the calling thread so errors and the resolved length surface as usual; errors
+ * during the fill are rethrown from the next {@link #read(byte[], int, int)} that would need them.
+ */
+public class ReadAheadDataSource implements DataSource {
+
+    /** Runs the fills of all sources, reusing threads across opens */
+    private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final DataSource upstream;
+    private final byte[] ring;
+
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private int readIndex;
+    private int writeIndex;
+    private int count;
+    private boolean endOfInput;
+    private boolean closed;
+    private boolean fillerDone;
+    private IOException fillError;
+
+    /** Whether a fill was started for the open request. Accessed on the caller's thread. */
+    private boolean filling;
+
+    public ReadAheadDataSource(DataSource upstream, int bufferSize) {
+        this.upstream = upstream;
+        this.ring = new byte[bufferSize];
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        Assertions.checkState(!filling);
+        long length = upstream.open(dataSpec);
+        synchronized (lock) {
+            readIndex = 0;
+            writeIndex = 0;
+            count = 0;
+            endOfInput = false;
+            closed = false;
+            fillerDone = false;
+            fillError = null;
+        }
+        filling = true;
+        executor.execute(fillRunnable);
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        synchronized (lock) {
+            while (count == 0 && !endOfInput && fillError == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (count == 0) {
+                if (fillError != null) {
+                    throw fillError;
+                }
+                return C.RESULT_END_OF_INPUT;
+            }
+            int bytesToRead = Math.min(readLength, Math.min(count, ring.length - readIndex));
+            System.arraycopy(ring, readIndex, buffer, offset, bytesToRead);
+            readIndex = (readIndex + bytesToRead) % ring.length;
+            count -= bytesToRead;
+            lock.notifyAll();
+            return bytesToRead;
+        }
+    }
+
+    /**
+     * Stops the fill and closes upstream. An upstream read in progress is canceled if upstream
+     * supports it (see {@link CancelableDataSource}), so retries and backoff do not hold up a
+     * seek, and waited for, since upstream must not be closed while it reads. An interrupt of the
+     * caller, e.g. a loader canceled by a seek, does not cut the wait short; it is kept set for
+     * the caller afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!filling) {
+            upstream.close();
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+            if (!fillerDone && upstream instanceof CancelableDataSource) {
+                ((CancelableDataSource) upstream).cancel();
+            }
+            while (!fillerDone) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        filling = false;
+        try {
+            upstream.close();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final Runnable fillRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                fill();
+            } catch (IOException e) {
+                synchronized (lock) {
+                    fillError = e;
+                }
+            } catch (RuntimeException e) {
+                // Surfaces on the reader's thread rather than killing a pool thread
+                synchronized (lock) {
+                    fillError = new IOException(e);
+                }
+            } finally {
+                synchronized (lock) {
+                    fillerDone = true;
+                    lock.notifyAll();
+                }
+            }
+        }
+    };
+
+    private void fill() throws IOException {
+        while (true) {
+            int writeOffset;
+            int writeLength;
+            synchronized (lock) {
+                while (count == ring.length && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                writeOffset = writeIndex;
+                writeLength = Math.min(ring.length - count, ring.length - writeIndex);
+            }
+            // The free region is not touched by the reader, so fill it outside the lock
+            int read = upstream.read(ring, writeOffset, writeLength);
+            synchronized (lock) {
+                if (read == C.RESULT_END_OF_INPUT) {
+                    endOfInput = true;
+                    return;
+                }
+                writeIndex = (writeIndex + read) % ring.length;
+                count += read;
+                lock.notifyAll();
+            }
+        }
+    }
+
+}
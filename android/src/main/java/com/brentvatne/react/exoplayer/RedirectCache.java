@@ -0,0 +1,121 @@
+package com.brentvatne.react.exoplayer;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers where a URL redirected to, so later requests for it go straight to the final host.
+ * <p/>
+ * Entries expire after the redirect's {@code Cache-Control: max-age} when given, otherwise after
+ * {@link #DEFAULT_TTL_MS} ({@link #PERMANENT_TTL_MS} for permanent redirects). The least recently
+ * used entry is dropped beyond {@link #MAX_ENTRIES}. Callers invalidate an entry when its target
+ * fails, e.g. once a signed edge URL has expired.
+ */
+public final class RedirectCache {
+
+    public static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+    public static final long PERMANENT_TTL_MS = 60 * 60 * 1000;
+
+    private static final int MAX_ENTRIES = 256;
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    private static final class Entry {
+        final String target;
+        final long expiresMs;
+
+        Entry(String target, long expiresMs) {
+            this.target = target;
+            this.expiresMs = expiresMs;
+        }
+    }
+
+    private static final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    private static volatile boolean enabled = true;
+
+    private RedirectCache() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        RedirectCache.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /** Returns the cached target of url, or null if none or expired */
+    public static String get(String url) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(url);
+            if (entry == null) {
+                return null;
+            }
+            if (SystemClock.elapsedRealtime() >= entry.expiresMs) {
+                entries.remove(url);
+                return null;
+            }
+            return entry.target;
+        }
+    }
+
+    /** Caches target for url for ttlMs. Ignored if ttlMs is not positive. */
+    public static void put(String url, String target, long ttlMs) {
+        if (!enabled || ttlMs <= 0 || url.equals(target)) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(url, new Entry(target, SystemClock.elapsedRealtime() + ttlMs));
+        }
+    }
+
+    public static void invalidate(String url) {
+        synchronized (entries) {
+            entries.remove(url);
+        }
+    }
+
+    public static void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns how long the redirect response on connection may be reused, from its status code and
+     * {@code Cache-Control} header. 0 if it must not be cached.
+     */
+    public static long getTtlMs(HttpURLConnection connection, int responseCode) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (!TextUtils.isEmpty(cacheControl)) {
+            if (cacheControl.contains("no-store") || cacheControl.contains("no-cache")) {
+                return 0;
+            }
+            Matcher matcher = MAX_AGE.matcher(cacheControl);
+            if (matcher.find()) {
+                try {
+                    return Long.parseLong(matcher.group(1)) * 1000;
+                } catch (NumberFormatException e) {
+                    // Fall through to the defaults
+                }
+            }
+        }
+        return responseCode == HttpURLConnection.HTTP_MOVED_PERM || responseCode == 308
+                ? PERMANENT_TTL_MS : DEFAULT_TTL_MS;
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.brentvatne.react.exoplayer;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Re-opens the request at the last delivered offset when a read fails, so a dropped connection
+ * does not surface as a load error.
+ * <p/>
+ * After a failed read, upstream is closed and, after a backoff that doubles with each attempt,
+ * opened again with a range starting at the first byte the caller has not seen. The caller sees
+ * a slower read, nothing more. Requests that cannot be resumed at a byte offset (gzip allowed, or
+ * with a POST body) are passed through untouched. Open failures are not retried.
+ * <p/>
+ * The resumed request carries an {@code If-Range} header with the validator (strong ETag, else
+ * Last-Modified) of the first response, and is only read from if the server answered with the
+ * range of that same version. Otherwise the resource changed in between and the read fails, rather
+ * than splicing bytes of two versions. Responses without a validator are not resumed.
+ * <p/>
+ * Besides an interrupt of the reading thread, {@link #cancel()} from any thread ends the retries
+ * and the backoff between them, and drops the connection of a read in progress.
+ */
+public class ResumingDataSource implements HttpDataSource, CancelableDataSource {
+
+    private static final String LOGTAG = ResumingDataSource.class.getSimpleName();
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    private final HttpDataSource upstream;
+    private final int maxRetries;
+    private final int backoffMs;
+
+    private DataSpec dataSpec;
+    private long bytesRead;
+    private boolean resumable;
+    private boolean upstreamOpen;
+    /** Header identifying the version of the first response, null if it has none */
+    private String validatorName;
+    private String validator;
+
+    /** Notified on cancel, to end a backoff */
+    private final Object cancelLock = new Object();
+    private volatile boolean canceled;
+
+    public ResumingDataSource(HttpDataSource upstream) {
+        this(upstream, DataSourceConfig.getResumeRetries(), DataSourceConfig.getResumeBackoffMs());
+    }
+
+    public ResumingDataSource(HttpDataSource upstream, int maxRetries, int backoffMs) {
+        this.upstream = upstream;
+        this.maxRetries = maxRetries;
+        this.backoffMs = backoffMs;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws HttpDataSourceException {
+        this.dataSpec = dataSpec;
+        canceled = false;
+        bytesRead = 0;
+        resumable = maxRetries > 0 && dataSpec.postBody == null
+                && (dataSpec.flags & DataSpec.FLAG_ALLOW_GZIP) == 0;
+        long length = upstream.open(dataSpec);
+        upstreamOpen = true;
+        if (resumable) {
+            Map<String, List<String>> headers = upstream.getResponseHeaders();
+            validatorName = HEADER_ETAG;
+            validator = getHeader(headers, HEADER_ETAG);
+            if (validator == null || validator.startsWith("W/")) {
+                // If-Range only takes strong validators
+                validatorName = HEADER_LAST_MODIFIED;
+                validator = getHeader(headers, HEADER_LAST_MODIFIED);
+            }
+            resumable = validator != null;
+        }
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+        int attempt = 0;
+        while (true) {
+            try {
+                if (!upstreamOpen) {
+                    throwIfCanceled();
+                    openRemainder();
+                }
+                int read = upstream.read(buffer, offset, readLength);
+                if (read > 0) {
+                    bytesRead += read;
+                }
+                return read;
+            } catch (HttpDataSourceException e) {
+                if (!resumable || attempt >= maxRetries || isCanceled(e)) {
+                    throw e;
+                }
+                attempt++;
+                Log.w(LOGTAG, "read(): resuming " + dataSpec.uri + " at " + bytesRead
+                        + ", attempt " + attempt + ": " + e);
+                closeUpstreamQuietly();
+                backoff(attempt);
+            }
+        }
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+        synchronized (cancelLock) {
+            cancelLock.notifyAll();
+        }
+        if (upstream instanceof CancelableDataSource) {
+            ((CancelableDataSource) upstream).cancel();
+        }
+    }
+
+    @Override
+    public void close() throws HttpDataSourceException {
+        dataSpec = null;
+        if (upstreamOpen) {
+            upstreamOpen = false;
+            upstream.close();
+        }
+    }
+
+    @Override
+    public String getUri() {
+        return upstream.getUri();
+    }
+
+    @Override
+    public void setRequestProperty(String name, String value) {
+        upstream.setRequestProperty(name, value);
+    }
+
+    @Override
+    public void clearRequestProperty(String name) {
+        upstream.clearRequestProperty(name);
+    }
+
+    @Override
+    public void clearAllRequestProperties() {
+        upstream.clearAllRequestProperties();
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return upstream.getResponseHeaders();
+    }
+
+    /**
+     * Opens the rest of the request, if the resource is still the version read so far. Does not
+     * retry when it is not.
+     */
+    private void openRemainder() throws HttpDataSourceException {
+        upstream.setRequestProperty(HEADER_IF_RANGE, validator);
+        try {
+            upstream.open(getRemainderSpec());
+        } finally {
+            upstream.clearRequestProperty(HEADER_IF_RANGE);
+        }
+        upstreamOpen = true;
+        Map<String, List<String>> headers = upstream.getResponseHeaders();
+        boolean ranged = dataSpec.position + bytesRead != 0
+                || dataSpec.length != C.LENGTH_UNBOUNDED;
+        // A full response (200) instead of the range means If-Range did not match
+        if ((ranged && getHeader(headers, HEADER_CONTENT_RANGE) == null)
+                || !validator.equals(getHeader(headers, validatorName))) {
+            resumable = false;
+            closeUpstreamQuietly();
+            throw new HttpDataSourceException("Changed while resuming: " + dataSpec.uri, dataSpec,
+                    HttpDataSourceException.TYPE_OPEN);
+        }
+    }
+
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    private DataSpec getRemainderSpec() {
+        long length = dataSpec.length == C.LENGTH_UNBOUNDED ? C.LENGTH_UNBOUNDED
+                : dataSpec.length - bytesRead;
+        return new DataSpec(dataSpec.uri, null, dataSpec.absoluteStreamPosition + bytesRead,
+                dataSpec.position + bytesRead, length, dataSpec.key, dataSpec.flags);
+    }
+
+    /** Waits before the next attempt, unless canceled meanwhile */
+    private void backoff(int attempt) throws HttpDataSourceException {
+        long endMs = SystemClock.elapsedRealtime() + (backoffMs << (attempt - 1));
+        synchronized (cancelLock) {
+            long remainingMs;
+            while (!canceled && (remainingMs = endMs - SystemClock.elapsedRealtime()) > 0) {
+                try {
+                    cancelLock.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    // Load was canceled
+                    Thread.currentThread().interrupt();
+                    throw newCanceledException();
+                }
+            }
+        }
+        throwIfCanceled();
+    }
+
+    private void throwIfCanceled() throws HttpDataSourceException {
+        if (canceled) {
+            throw newCanceledException();
+        }
+    }
+
+    private HttpDataSourceException newCanceledException() {
+        return new HttpDataSourceException(new InterruptedIOException(), dataSpec,
+                HttpDataSourceException.TYPE_READ);
+    }
+
+    private void closeUpstreamQuietly() {
+        upstreamOpen = false;
+        try {
+            upstream.close();
+        } catch (IOException e) {
+            // Connection is already broken
+        }
+    }
+
+    private boolean isCanceled(IOException e) {
+        Throwable cause = e.getCause();
+        // A read timeout is an InterruptedIOException too, but worth resuming
+        return canceled
+                || (cause instanceof InterruptedIOException
+                && !(cause instanceof SocketTimeoutException))
+                || Thread.currentThread().isInterrupted();
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.Context;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource.InvalidResponseCodeException;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.upstream.UriLoadable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads manifests for a {@link com.google.android.exoplayer.util.ManifestFetcher} through the
+ * {@link ManifestCache}.
+ * <p/>
+ * Requests for a cached manifest carry its ETag and Last-Modified as If-None-Match and
+ * If-Modified-Since. On a 304 the source reads as empty and the parser returned by
+ * {@link #wrap(UriLoadable.Parser)} hands back the cached manifest instead of parsing. Other
+ * responses are parsed as usual and cached if they have a validator. Requests for anything but
+ * plain http(s) GETs, or for manifests stored by the {@link DownloadManager}, go through a
+ * {@link DefaultUriDataSourceWrapper} untouched.
+ */
+public final class RevalidatingManifestDataSource implements UriDataSource {
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private final HttpDataSource httpDataSource;
+    private final UriDataSource fallbackDataSource;
+    /** Null if nothing was ever downloaded */
+    private final DownloadManager downloads;
+
+    /** Source for the currently open request, null when closed or not modified */
+    private UriDataSource dataSource;
+    private String uri;
+    /** Cached entry the server just confirmed, null unless the response was a 304 */
+    private ManifestCache.Entry notModifiedEntry;
+    /** Whether the response can be cached, along with its validators */
+    private boolean cacheable;
+    private String etag;
+    private String lastModified;
+    private long bytesRead;
+
+    public RevalidatingManifestDataSource(Context context, String userAgent) {
+        httpDataSource = new ResumingDataSource(new InstrumentedDataSource(
+                new KeepAliveHttpDataSource(userAgent, null), null));
+        fallbackDataSource = new DefaultUriDataSourceWrapper(context, userAgent);
+        downloads = DownloadManager.getIfExists(context);
+    }
+
+    /** Returns a parser that parses through parser, unless the server confirmed a cached copy */
+    public <T> UriLoadable.Parser<T> wrap(final UriLoadable.Parser<T> parser) {
+        return new UriLoadable.Parser<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public T parse(String connectionUrl, InputStream inputStream) throws IOException {
+                if (notModifiedEntry != null) {
+                    return (T) notModifiedEntry.manifest;
+                }
+                T manifest = parser.parse(connectionUrl, inputStream);
+                if (cacheable) {
+                    ManifestCache.put(uri, new ManifestCache.Entry(manifest, etag, lastModified,
+                            bytesRead));
+                }
+                return manifest;
+            }
+        };
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        uri = dataSpec.uri.toString();
+        dataSource = null;
+        notModifiedEntry = null;
+        cacheable = false;
+        bytesRead = 0;
+        if (!MediaCache.isCacheable(dataSpec.uri) || dataSpec.postBody != null
+                || (downloads != null && downloads.getStoredDataSpec(dataSpec) != null)) {
+            dataSource = fallbackDataSource;
+            return dataSource.open(dataSpec);
+        }
+        ManifestCache.Entry entry = ManifestCache.get(uri);
+        httpDataSource.clearAllRequestProperties();
+        if (entry != null) {
+            if (entry.etag != null) {
+                httpDataSource.setRequestProperty("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                httpDataSource.setRequestProperty("If-Modified-Since", entry.lastModified);
+            }
+        }
+        long length;
+        try {
+            length = httpDataSource.open(dataSpec);
+        } catch (InvalidResponseCodeException e) {
+            if (entry == null || e.responseCode != HTTP_NOT_MODIFIED) {
+                throw e;
+            }
+            notModifiedEntry = entry;
+            return 0;
+        }
+        dataSource = httpDataSource;
+        Map<String, List<String>> headers = httpDataSource.getResponseHeaders();
+        etag = getHeader(headers, "ETag");
+        lastModified = getHeader(headers, "Last-Modified");
+        String cacheControl = getHeader(headers, "Cache-Control");
+        cacheable = dataSpec.position == 0 && dataSpec.length == C.LENGTH_UNBOUNDED
+                && (etag != null || lastModified != null)
+                && (cacheControl == null || !cacheControl.contains("no-store"));
+        return length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (dataSource == null) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int read = dataSource.read(buffer, offset, readLength);
+        if (read > 0) {
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public String getUri() {
+        return dataSource == null ? uri : dataSource.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (dataSource != null) {
+            try {
+                dataSource.close();
+            } finally {
+                dataSource = null;
+            }
+        }
+    }
+
+    /** Returns the first value of a header, matching its name case-insensitively, or null */
+    private static String getHeader(Map<String, List<String>> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,274 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.upstream.Loader.Loadable;
+import com.google.android.exoplayer.upstream.UriLoadable;
+import com.google.android.exoplayer.util.ManifestFetcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ManifestFetcher} shared by every player of the same manifest url, so that N players of a
+ * live channel make one request per refresh interval instead of N.
+ * <p/>
+ * Obtained with {@link #acquire} and given back with {@link #release}; the fetcher is dropped once
+ * the last player releases it. Live DASH manifests are refreshed by the
+ * {@link LiveRefreshScheduler} just before players would ask, and only while one of them wants it.
+ * Players refresh it from their own playback threads, so its state is guarded by its monitor and
+ * all loads run on the scheduler thread, which outlives any single player. A refresh requested
+ * while one is in flight, or after another player just refreshed, costs nothing.
+ */
+public final class SharedManifestFetcher<T> extends ManifestFetcher<T> {
+
+    private static final String LOGTAG = SharedManifestFetcher.class.getSimpleName();
+
+    /** Update period DashChunkSource assumes for a live manifest without one */
+    private static final long DEFAULT_MIN_UPDATE_PERIOD_MS = 5000;
+
+    /** Guarded by the class */
+    private static final Map<String, SharedManifestFetcher<?>> fetchers = new HashMap<>();
+
+    private final String key;
+    private final Handler loadHandler;
+
+    /** Guarded by the class */
+    private int referenceCount;
+
+    // Guarded by this
+    private int enabledCount;
+    private boolean refreshPending;
+    /** Players waiting for a single load, null when none is in flight */
+    private List<Waiter<T>> singleLoadWaiters;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshNow();
+        }
+    };
+
+    private final LiveRefreshScheduler.Feed feed = new LiveRefreshScheduler.Feed() {
+        @Override
+        protected long getUpdatePeriodMs() {
+            T manifest = getManifest();
+            if (!(manifest instanceof MediaPresentationDescription)
+                    || !((MediaPresentationDescription) manifest).dynamic) {
+                return 0;
+            }
+            long minUpdatePeriod = ((MediaPresentationDescription) manifest).minUpdatePeriod;
+            return minUpdatePeriod > 0 ? minUpdatePeriod : DEFAULT_MIN_UPDATE_PERIOD_MS;
+        }
+
+        @Override
+        protected long getLastLoadMs() {
+            return getManifestLoadStartTimestamp();
+        }
+
+        @Override
+        protected void refresh() {
+            refreshNow();
+        }
+    };
+
+    private SharedManifestFetcher(String key, String url, RevalidatingManifestDataSource dataSource,
+                                  UriLoadable.Parser<T> parser) {
+        super(url, dataSource, dataSource.wrap(parser));
+        this.key = key;
+        loadHandler = new Handler(LiveRefreshScheduler.getLooper());
+    }
+
+    /**
+     * Returns the fetcher for the manifest at url, creating it if no player holds one, and keeps
+     * it refreshed while watcher wants it. Fetchers are told apart by parser class as well as url.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> SharedManifestFetcher<T> acquire(Context context, String userAgent,
+            String url, UriLoadable.Parser<T> parser, LiveRefreshScheduler.Watcher watcher) {
+        SharedManifestFetcher<T> fetcher;
+        synchronized (SharedManifestFetcher.class) {
+            String key = parser.getClass().getName() + ' ' + url;
+            fetcher = (SharedManifestFetcher<T>) fetchers.get(key);
+            if (fetcher == null) {
+                fetcher = new SharedManifestFetcher<>(key, url,
+                        new RevalidatingManifestDataSource(context, userAgent), parser);
+                fetchers.put(key, fetcher);
+            } else {
+                Log.d(LOGTAG, "acquire(): sharing manifest of " + url);
+            }
+            fetcher.referenceCount++;
+        }
+        LiveRefreshScheduler.addWatcher(fetcher.feed, watcher);
+        return fetcher;
+    }
+
+    /**
+     * Gives back a fetcher obtained from {@link #acquire} for watcher. It must not be used
+     * afterwards.
+     */
+    public void release(LiveRefreshScheduler.Watcher watcher) {
+        LiveRefreshScheduler.removeWatcher(feed, watcher);
+        synchronized (SharedManifestFetcher.class) {
+            if (--referenceCount > 0) {
+                return;
+            }
+            fetchers.remove(key);
+        }
+        LiveRefreshScheduler.remove(feed);
+    }
+
+    /** Starts a refresh on the scheduler thread, if a player is still enabled */
+    private synchronized void refreshNow() {
+        refreshPending = false;
+        if (enabledCount > 0) {
+            super.requestRefresh();
+        }
+    }
+
+    /**
+     * Delivers the manifest to callback on the thread of callbackLooper: right away if it was
+     * already loaded, for another player or by a refresh, otherwise once the load in flight, or
+     * one started now, completes.
+     */
+    @Override
+    public void singleLoad(Looper callbackLooper, ManifestCallback<T> callback) {
+        Waiter<T> waiter = new Waiter<>(new Handler(callbackLooper), callback);
+        synchronized (this) {
+            T manifest = getManifest();
+            if (manifest != null) {
+                waiter.deliver(manifest, null);
+                return;
+            }
+            if (singleLoadWaiters != null) {
+                singleLoadWaiters.add(waiter);
+                return;
+            }
+            singleLoadWaiters = new ArrayList<>();
+            singleLoadWaiters.add(waiter);
+        }
+        super.singleLoad(loadHandler.getLooper(), new ManifestCallback<T>() {
+            @Override
+            public void onSingleManifest(T manifest) {
+                deliverSingleLoad(manifest, null);
+            }
+
+            @Override
+            public void onSingleManifestError(IOException e) {
+                deliverSingleLoad(null, e);
+            }
+        });
+    }
+
+    private void deliverSingleLoad(T manifest, IOException e) {
+        List<Waiter<T>> waiters;
+        synchronized (this) {
+            waiters = singleLoadWaiters;
+            singleLoadWaiters = null;
+        }
+        for (Waiter<T> waiter : waiters) {
+            waiter.deliver(manifest, e);
+        }
+        // Now that its update period is known
+        LiveRefreshScheduler.reschedule();
+    }
+
+    /**
+     * Refreshes on the scheduler thread, once however many players ask. The scheduler normally
+     * refreshes before players ask, but only while a player wants refreshes, so requests of chunk
+     * sources are always honored.
+     */
+    @Override
+    public synchronized void requestRefresh() {
+        if (!refreshPending) {
+            refreshPending = true;
+            loadHandler.post(refreshRunnable);
+        }
+    }
+
+    @Override
+    public synchronized void enable() {
+        enabledCount++;
+        super.enable();
+    }
+
+    @Override
+    public synchronized void disable() {
+        enabledCount--;
+        super.disable();
+    }
+
+    @Override
+    public synchronized T getManifest() {
+        return super.getManifest();
+    }
+
+    @Override
+    public synchronized long getManifestLoadStartTimestamp() {
+        return super.getManifestLoadStartTimestamp();
+    }
+
+    @Override
+    public synchronized long getManifestLoadCompleteTimestamp() {
+        return super.getManifestLoadCompleteTimestamp();
+    }
+
+    @Override
+    public synchronized void maybeThrowError() throws ManifestIOException {
+        super.maybeThrowError();
+    }
+
+    @Override
+    public synchronized void updateManifestUri(String manifestUri) {
+        super.updateManifestUri(manifestUri);
+    }
+
+    @Override
+    public synchronized void onLoadCompleted(Loadable loadable) {
+        super.onLoadCompleted(loadable);
+    }
+
+    @Override
+    public synchronized void onLoadCanceled(Loadable loadable) {
+        super.onLoadCanceled(loadable);
+    }
+
+    @Override
+    public synchronized void onLoadError(Loadable loadable, IOException exception) {
+        super.onLoadError(loadable, exception);
+    }
+
+    /** A player's callback for a single load, with the handler of its thread */
+    private static final class Waiter<T> {
+
+        private final Handler handler;
+        private final ManifestCallback<T> callback;
+
+        Waiter(Handler handler, ManifestCallback<T> callback) {
+            this.handler = handler;
+            this.callback = callback;
+        }
+
+        void deliver(final T manifest, final IOException e) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (e != null) {
+                        callback.onSingleManifestError(e);
+                    } else {
+                        callback.onSingleManifest(manifest);
+                    }
+                }
+            });
+        }
+
+    }
+
+}
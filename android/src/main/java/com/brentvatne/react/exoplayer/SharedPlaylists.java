@@ -0,0 +1,296 @@
+package com.brentvatne.react.exoplayer;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HLS playlist responses shared by every player reloading the same playlist.
+ * <p/>
+ * HlsChunkSource reloads a live media playlist once half its target duration has passed since the
+ * last load, each player on its own schedule. A response is served to every player asking for it
+ * for that same half target duration, and players asking while it is loading wait for it, so N
+ * players of a channel make about one request per reload interval instead of N. Playlists without
+ * a target duration (master playlists) are only shared while loading.
+ * <p/>
+ * Live playlists requested on behalf of a {@link LiveRefreshScheduler.Watcher} are also reloaded
+ * by the {@link LiveRefreshScheduler} just before their response goes stale, for as long as
+ * players keep asking for them, so those players are served from memory. Those loads run on a
+ * small pool, the scheduler thread only starts them.
+ */
+final class SharedPlaylists {
+
+    private static final String LOGTAG = SharedPlaylists.class.getSimpleName();
+
+    /** Longest a request waits for another player's load before loading itself */
+    private static final long MAX_WAIT_MS = 15000;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private static final Pattern TARGET_DURATION_REGEX =
+            Pattern.compile("#EXT-X-TARGETDURATION:\\s*(\\d+)");
+    private static final String ENDLIST_TAG = "#EXT-X-ENDLIST";
+    /** Reload intervals a live playlist is refreshed for after players last asked for it */
+    private static final int FEED_IDLE_PERIODS = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final class Entry {
+        final CountDownLatch done = new CountDownLatch(1);
+        /** Null while loading or if the load failed */
+        byte[] body;
+        long expiresAtMs;
+    }
+
+    /** Guarded by itself */
+    private static final Map<String, Entry> entries = new HashMap<>();
+    /** Live playlists being refreshed, by url. Guarded by entries. */
+    private static final Map<String, PlaylistFeed> feeds = new HashMap<>();
+
+    /** Loads refreshes, which may retry with backoff, off the scheduler thread */
+    private static final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(2, 2, 30,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private SharedPlaylists() {
+    }
+
+    /**
+     * Returns the playlist requested by dataSpec, loaded through dataSource unless another player
+     * loaded it recently or is loading it. If watcher is not null and the playlist is live, it is
+     * refreshed in the background while watcher wants it, loaded with userAgent.
+     */
+    static byte[] load(DataSpec dataSpec, UriDataSource dataSource,
+                       LiveRefreshScheduler.Watcher watcher, String userAgent) throws IOException {
+        byte[] body = load(dataSpec, dataSource);
+        if (watcher != null) {
+            watch(dataSpec.uri.toString(), body, watcher, userAgent);
+        }
+        return body;
+    }
+
+    private static byte[] load(DataSpec dataSpec, UriDataSource dataSource) throws IOException {
+        String uri = dataSpec.uri.toString();
+        while (true) {
+            Entry entry;
+            boolean loader = false;
+            synchronized (entries) {
+                expireEntries();
+                entry = entries.get(uri);
+                if (entry == null) {
+                    entry = new Entry();
+                    entries.put(uri, entry);
+                    loader = true;
+                }
+            }
+            if (loader) {
+                return loadEntry(uri, entry, dataSpec, dataSource);
+            }
+            try {
+                if (!entry.done.await(MAX_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    // Stuck on a slow connection, ours may do better
+                    return read(dataSpec, dataSource);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            byte[] body = entry.body;
+            if (body != null) {
+                return body;
+            }
+            // The other load failed and is gone, try again
+        }
+    }
+
+    private static byte[] loadEntry(String uri, Entry entry, DataSpec dataSpec,
+                                    UriDataSource dataSource) throws IOException {
+        byte[] body = null;
+        try {
+            body = read(dataSpec, dataSource);
+            return body;
+        } finally {
+            synchronized (entries) {
+                entry.body = body;
+                entry.expiresAtMs = SystemClock.elapsedRealtime() + getMaxAgeMs(body);
+                if (body == null && entries.get(uri) == entry) {
+                    entries.remove(uri);
+                }
+            }
+            entry.done.countDown();
+        }
+    }
+
+    /** Keeps the playlist at uri refreshed for watcher, if it is live */
+    private static void watch(String uri, byte[] body, LiveRefreshScheduler.Watcher watcher,
+                              String userAgent) {
+        long periodMs = getMaxAgeMs(body);
+        if (periodMs == 0 || new String(body, UTF_8).contains(ENDLIST_TAG)) {
+            return;
+        }
+        PlaylistFeed feed;
+        synchronized (entries) {
+            feed = feeds.get(uri);
+            if (feed == null) {
+                feed = new PlaylistFeed(uri, userAgent);
+                feeds.put(uri, feed);
+            }
+            feed.periodMs = periodMs;
+            feed.lastRequestedMs = SystemClock.elapsedRealtime();
+        }
+        LiveRefreshScheduler.addWatcher(feed, watcher);
+    }
+
+    /** Half the target duration of playlist, 0 if it has none */
+    private static long getMaxAgeMs(byte[] playlist) {
+        if (playlist == null) {
+            return 0;
+        }
+        Matcher matcher = TARGET_DURATION_REGEX.matcher(new String(playlist, UTF_8));
+        return matcher.find() ? Long.parseLong(matcher.group(1)) * 1000 / 2 : 0;
+    }
+
+    /** Drops loaded entries past their age and idle feeds. Called with the entries lock held. */
+    private static void expireEntries() {
+        long nowMs = SystemClock.elapsedRealtime();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.done.getCount() == 0 && nowMs >= entry.expiresAtMs) {
+                iterator.remove();
+            }
+        }
+        Iterator<PlaylistFeed> feedIterator = feeds.values().iterator();
+        while (feedIterator.hasNext()) {
+            if (feedIterator.next().isIdle(nowMs)) {
+                feedIterator.remove();
+            }
+        }
+    }
+
+    /** A live playlist refreshed while players keep asking for it */
+    private static final class PlaylistFeed extends LiveRefreshScheduler.Feed {
+
+        private final String uri;
+        private final String userAgent;
+        /** Created on first refresh, used by one load at a time */
+        private UriDataSource dataSource;
+
+        // Guarded by entries
+        long periodMs;
+        long lastRequestedMs;
+        long lastLoadMs;
+
+        PlaylistFeed(String uri, String userAgent) {
+            this.uri = uri;
+            this.userAgent = userAgent;
+            lastLoadMs = SystemClock.elapsedRealtime();
+        }
+
+        /** Whether players stopped asking for the playlist. Called with the entries lock held. */
+        boolean isIdle(long nowMs) {
+            return periodMs == 0 || nowMs - lastRequestedMs > FEED_IDLE_PERIODS * periodMs;
+        }
+
+        @Override
+        protected long getUpdatePeriodMs() {
+            synchronized (entries) {
+                return periodMs;
+            }
+        }
+
+        @Override
+        protected long getLastLoadMs() {
+            synchronized (entries) {
+                Entry entry = entries.get(uri);
+                if (entry != null && entry.done.getCount() == 0 && entry.body != null) {
+                    // A player's own load counts too
+                    return Math.max(lastLoadMs, entry.expiresAtMs - periodMs);
+                }
+                return lastLoadMs;
+            }
+        }
+
+        @Override
+        protected boolean isExpired() {
+            synchronized (entries) {
+                return feeds.get(uri) != this || isIdle(SystemClock.elapsedRealtime());
+            }
+        }
+
+        /** Starts loading on refreshExecutor, unless the playlist is being loaded already */
+        @Override
+        protected void refresh() {
+            final Entry entry;
+            synchronized (entries) {
+                Entry current = entries.get(uri);
+                if (current != null && current.done.getCount() > 0) {
+                    // A player or an earlier refresh is loading it right now
+                    return;
+                }
+                lastLoadMs = SystemClock.elapsedRealtime();
+                entry = new Entry();
+                entries.put(uri, entry);
+            }
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    load(entry);
+                }
+            });
+        }
+
+        private void load(Entry entry) {
+            if (dataSource == null) {
+                dataSource = new ResumingDataSource(new InstrumentedDataSource(
+                        new KeepAliveHttpDataSource(userAgent, null), null));
+            }
+            try {
+                byte[] body = loadEntry(uri, entry, new DataSpec(Uri.parse(uri)), dataSource);
+                synchronized (entries) {
+                    // The event is over once the playlist ends
+                    periodMs = new String(body, UTF_8).contains(ENDLIST_TAG) ? 0
+                            : getMaxAgeMs(body);
+                }
+            } catch (IOException e) {
+                // Players load it themselves
+                Log.d(LOGTAG, "refresh(): failed for " + uri + ": " + e);
+            }
+        }
+
+    }
+
+    private static byte[] read(DataSpec dataSpec, UriDataSource dataSource) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try {
+            dataSource.open(dataSpec);
+            int read;
+            while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                output.write(buffer, 0, read);
+            }
+        } finally {
+            dataSource.close();
+        }
+        return output.toByteArray();
+    }
+
+}
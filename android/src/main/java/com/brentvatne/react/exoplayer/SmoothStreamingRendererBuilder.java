@@ -42,8 +42,6 @@ import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
-import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
-import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
 import com.google.android.exoplayer.util.Util;
 
@@ -107,8 +105,8 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
       this.drmCallback = drmCallback;
       this.player = player;
       SmoothStreamingManifestParser parser = new SmoothStreamingManifestParser();
-      manifestFetcher = new ManifestFetcher<>(url, new DefaultHttpDataSource(userAgent, null),
-          parser);
+      manifestFetcher = new ManifestFetcher<>(url,
+          new DefaultUriDataSourceWrapper(context, userAgent), parser);
     }
 
     public void init() {
@@ -156,7 +154,8 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
       }
 
       // Build the video renderer.
-      DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource videoDataSource = new DefaultUriDataSourceWrapper(context, bandwidthMeter,
+          userAgent, MediaCache.getCache(context), player.getDataSourceStats());
       ChunkSource videoChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
           DefaultSmoothStreamingTrackSelector.newVideoInstance(context, true, false),
           videoDataSource, new AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS);
@@ -168,7 +167,8 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
           drmSessionManager, true, mainHandler, player, 50);
 
       // Build the audio renderer.
-      DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource audioDataSource = new DefaultUriDataSourceWrapper(context, bandwidthMeter,
+          userAgent, MediaCache.getCache(context), player.getDataSourceStats());
       ChunkSource audioChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
           DefaultSmoothStreamingTrackSelector.newAudioInstance(),
           audioDataSource, null, LIVE_EDGE_LATENCY_MS);
@@ -180,7 +180,8 @@ public class SmoothStreamingRendererBuilder implements ExoPlayerWrapper.Renderer
           AudioCapabilities.getCapabilities(context), AudioManager.STREAM_MUSIC);
 
       // Build the text renderer.
-      DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      DataSource textDataSource = new DefaultUriDataSourceWrapper(context, bandwidthMeter,
+          userAgent, MediaCache.getCache(context), player.getDataSourceStats());
       ChunkSource textChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
           DefaultSmoothStreamingTrackSelector.newTextInstance(),
           textDataSource, null, LIVE_EDGE_LATENCY_MS);
@@ -0,0 +1,418 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsMediaPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.Variant;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+import com.google.android.exoplayer.util.UriUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches what a player will request first as soon as its builder has parsed the manifest, so
+ * those requests overlap with DRM setup, clock resolution and renderer creation instead of
+ * following them.
+ * <p/>
+ * For HLS that is the media playlist of the variant the chunk source starts with and its first
+ * segment. For DASH it is the initialization data and first segment of the representations the
+ * player is likely to start with. Segments go to the {@link MediaCache}. Playlists are not cached
+ * on disk, so they are held in memory for a few seconds and handed out once.
+ * <p/>
+ * A player request for a range still being prefetched waits for the prefetch instead of fetching
+ * it a second time (see {@link #awaitPending(DataSpec)}). Ranges of the same file are told apart,
+ * since a DASH SegmentBase keeps its initialization data, index and media in one.
+ */
+public final class StartupPrefetcher {
+
+    private static final String LOGTAG = StartupPrefetcher.class.getSimpleName();
+
+    /** Longest a player request waits for a prefetch of the same resource */
+    private static final long MAX_WAIT_MS = 8000;
+    /** How long a prefetched playlist is served before it is considered stale */
+    private static final long PLAYLIST_TTL_MS = 5000;
+    /** Bitrate the DASH AdaptiveEvaluator starts with, without a bandwidth estimate */
+    private static final int INITIAL_BITRATE = 800000 * 3 / 4;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /** A range being or having been prefetched */
+    private static final class Entry {
+        final String key;
+        final String uri;
+        final long position;
+        final long length;
+        final CountDownLatch done = new CountDownLatch(1);
+        /** Prefetched playlist, null for cached resources or on failure */
+        byte[] body;
+        long completedAtMs;
+
+        Entry(DataSpec dataSpec) {
+            key = getKey(dataSpec);
+            uri = dataSpec.uri.toString();
+            position = dataSpec.position;
+            length = dataSpec.length;
+        }
+
+        /** Whether the range of dataSpec, of any uri, overlaps this one */
+        boolean overlaps(DataSpec dataSpec) {
+            return (length == C.LENGTH_UNBOUNDED || dataSpec.position < position + length)
+                    && (dataSpec.length == C.LENGTH_UNBOUNDED
+                    || position < dataSpec.position + dataSpec.length);
+        }
+    }
+
+    /** By {@link #getKey(DataSpec)}. Guarded by itself. */
+    private static final Map<String, Entry> entries = new HashMap<>();
+
+    /** Set on prefetch threads, whose requests must not wait for themselves */
+    private static final ThreadLocal<Boolean> prefetching = new ThreadLocal<>();
+
+    /** Nothing queued may be dropped, a player request could be waiting for it */
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final UriDataSource dataSource;
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+
+    private StartupPrefetcher(Context context, String userAgent) {
+        dataSource = new DefaultUriDataSourceWrapper(context, null, userAgent,
+                MediaCache.getCache(context));
+    }
+
+    /** Prefetches the start of the HLS playlist parsed from url, unless it is downloaded */
+    public static void prefetch(Context context, final String userAgent, String url,
+                                final HlsPlaylist playlist) {
+        if (!shouldPrefetch(context, url)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final String mediaPlaylistUrl = playlist instanceof HlsMasterPlaylist
+                ? getStartVariantUrl((HlsMasterPlaylist) playlist) : null;
+        // Registered now so the chunk source waits for it, even if queued behind other work
+        final Entry playlistEntry = mediaPlaylistUrl == null ? null
+                : register(toPlaylistDataSpec(mediaPlaylistUrl));
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                StartupPrefetcher prefetcher = new StartupPrefetcher(appContext, userAgent);
+                HlsPlaylist mediaPlaylist = playlist;
+                if (playlistEntry != null) {
+                    mediaPlaylist = prefetcher.fetchPlaylist(mediaPlaylistUrl, playlistEntry);
+                }
+                if (mediaPlaylist instanceof HlsMediaPlaylist) {
+                    prefetcher.prefetchFirstSegment((HlsMediaPlaylist) mediaPlaylist);
+                }
+            }
+        });
+    }
+
+    /** Prefetches the start of the DASH manifest parsed from url, unless it is downloaded */
+    public static void prefetch(Context context, final String userAgent, String url,
+                                final MediaPresentationDescription manifest) {
+        if (!shouldPrefetch(context, url) || manifest.dynamic || manifest.getPeriodCount() == 0) {
+            // Live presentations start at a position only known once the clock is resolved
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        Period period = manifest.getPeriod(0);
+        long periodDurationMs = manifest.getPeriodDuration(0);
+        final long periodDurationUs = periodDurationMs == -1 ? -1 : periodDurationMs * 1000;
+        boolean videoSeen = false;
+        boolean audioSeen = false;
+        for (AdaptationSet adaptationSet : period.adaptationSets) {
+            Representation representation;
+            if (adaptationSet.type == AdaptationSet.TYPE_VIDEO && !videoSeen) {
+                videoSeen = true;
+                representation = getStartRepresentation(adaptationSet.representations);
+            } else if (adaptationSet.type == AdaptationSet.TYPE_AUDIO && !audioSeen) {
+                // Audio tracks are selected by index, the first one by default
+                audioSeen = true;
+                representation = adaptationSet.representations.isEmpty() ? null
+                        : adaptationSet.representations.get(0);
+            } else {
+                continue;
+            }
+            if (representation == null) {
+                continue;
+            }
+            final List<DataSpec> dataSpecs = getStartDataSpecs(representation, periodDurationUs);
+            final List<Entry> pending = new ArrayList<>();
+            for (DataSpec dataSpec : dataSpecs) {
+                pending.add(register(dataSpec));
+            }
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    new StartupPrefetcher(appContext, userAgent).fetchAll(dataSpecs, pending);
+                }
+            });
+        }
+    }
+
+    /**
+     * Blocks while prefetches of ranges overlapping dataSpec are in flight, for at most
+     * {@link #MAX_WAIT_MS} in all, so the caller finds their result instead of fetching it again.
+     */
+    static void awaitPending(DataSpec dataSpec) throws IOException {
+        if (prefetching.get() != null) {
+            return;
+        }
+        String uri = dataSpec.uri.toString();
+        List<Entry> overlapping = new ArrayList<>();
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                if (entry.uri.equals(uri) && entry.overlaps(dataSpec)
+                        && entry.done.getCount() > 0) {
+                    overlapping.add(entry);
+                }
+            }
+        }
+        long deadlineMs = SystemClock.elapsedRealtime() + MAX_WAIT_MS;
+        try {
+            for (Entry entry : overlapping) {
+                long remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+                if (remainingMs <= 0
+                        || !entry.done.await(remainingMs, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /** Returns the prefetched playlist at uri and forgets it, or null if there is none */
+    static byte[] takePlaylist(String uri) {
+        String key = getKey(toPlaylistDataSpec(uri));
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.done.getCount() > 0) {
+                return null;
+            }
+            entries.remove(key);
+            boolean fresh = SystemClock.elapsedRealtime() - entry.completedAtMs <= PLAYLIST_TTL_MS;
+            return fresh ? entry.body : null;
+        }
+    }
+
+    private static boolean shouldPrefetch(Context context, String url) {
+        return MediaCache.isCacheable(Uri.parse(url)) && MediaCache.getCache(context) != null
+                && DownloadManager.findDownload(context, url) == null;
+    }
+
+    private static void execute(final Runnable runnable) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetching.set(Boolean.TRUE);
+                try {
+                    runnable.run();
+                } finally {
+                    prefetching.remove();
+                }
+            }
+        });
+    }
+
+    /** The uri and range of a request, which is what prefetches are tracked by */
+    private static String getKey(DataSpec dataSpec) {
+        return dataSpec.uri + "@" + dataSpec.position + ":" + dataSpec.length;
+    }
+
+    private static DataSpec toPlaylistDataSpec(String url) {
+        return new DataSpec(Uri.parse(url), DataSpec.FLAG_ALLOW_GZIP);
+    }
+
+    private static Entry register(DataSpec dataSpec) {
+        synchronized (entries) {
+            expireEntries();
+            Entry entry = new Entry(dataSpec);
+            entries.put(entry.key, entry);
+            return entry;
+        }
+    }
+
+    private static void complete(Entry entry, byte[] body) {
+        synchronized (entries) {
+            entry.body = body;
+            entry.completedAtMs = SystemClock.elapsedRealtime();
+            if (body == null && entries.get(entry.key) == entry) {
+                // Nothing to hand out, the cache has it
+                entries.remove(entry.key);
+            }
+        }
+        entry.done.countDown();
+    }
+
+    /** Drops playlists nobody took. Called with the entries lock held. */
+    private static void expireEntries() {
+        long nowMs = SystemClock.elapsedRealtime();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.done.getCount() == 0 && nowMs - entry.completedAtMs > PLAYLIST_TTL_MS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /** The variant HlsChunkSource starts with, which is the first one listed */
+    private static String getStartVariantUrl(HlsMasterPlaylist playlist) {
+        List<Variant> variants = playlist.variants;
+        return variants.isEmpty() ? null : UriUtil.resolve(playlist.baseUri, variants.get(0).url);
+    }
+
+    /** The representation AdaptiveEvaluator starts with, without a bandwidth estimate */
+    private static Representation getStartRepresentation(List<Representation> representations) {
+        Representation best = null;
+        Representation lowest = null;
+        for (Representation representation : representations) {
+            int bitrate = representation.format.bitrate;
+            if (bitrate <= INITIAL_BITRATE && (best == null || bitrate > best.format.bitrate)) {
+                best = representation;
+            }
+            if (lowest == null || bitrate < lowest.format.bitrate) {
+                lowest = representation;
+            }
+        }
+        return best != null ? best : lowest;
+    }
+
+    /** Initialization data, index and first segment, with the ranges DashChunkSource uses */
+    private static List<DataSpec> getStartDataSpecs(Representation representation,
+                                                    long periodDurationUs) {
+        List<DataSpec> dataSpecs = new ArrayList<>();
+        RangedUri initializationUri = representation.getInitializationUri();
+        if (initializationUri != null) {
+            dataSpecs.add(toDataSpec(initializationUri));
+        }
+        DashSegmentIndex index = representation.getIndex();
+        if (index == null) {
+            RangedUri indexUri = representation.getIndexUri();
+            if (indexUri != null) {
+                dataSpecs.add(toDataSpec(indexUri));
+            }
+        } else {
+            int firstSegmentNum = index.getFirstSegmentNum();
+            int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+            if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED
+                    || firstSegmentNum <= lastSegmentNum) {
+                dataSpecs.add(toDataSpec(index.getSegmentUrl(firstSegmentNum)));
+            }
+        }
+        return dataSpecs;
+    }
+
+    private static DataSpec toDataSpec(RangedUri rangedUri) {
+        return new DataSpec(rangedUri.getUri(), rangedUri.start, rangedUri.length, null);
+    }
+
+    private HlsPlaylist fetchPlaylist(String url, Entry entry) {
+        byte[] body = null;
+        HlsPlaylist playlist = null;
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            load(toPlaylistDataSpec(url), output);
+            body = output.toByteArray();
+            playlist = new CompactHlsPlaylistParser().parse(url, new ByteArrayInputStream(body));
+        } catch (IOException e) {
+            Log.d(LOGTAG, "fetchPlaylist(): failed for " + url + ": " + e);
+        }
+        if (playlist instanceof HlsMediaPlaylist && !((HlsMediaPlaylist) playlist).live) {
+            // Register the segment before releasing the playlist, so its request waits for us
+            HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) playlist;
+            if (!mediaPlaylist.segments.isEmpty()) {
+                register(getSegmentDataSpec(mediaPlaylist, mediaPlaylist.segments.get(0)));
+            }
+        }
+        complete(entry, body);
+        return playlist;
+    }
+
+    private void prefetchFirstSegment(HlsMediaPlaylist playlist) {
+        if (playlist.live || playlist.segments.isEmpty()) {
+            // Live streams start near the end, wherever that is by the time the player gets there
+            return;
+        }
+        DataSpec dataSpec = getSegmentDataSpec(playlist, playlist.segments.get(0));
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(getKey(dataSpec));
+        }
+        if (entry == null) {
+            entry = register(dataSpec);
+        }
+        List<DataSpec> dataSpecs = new ArrayList<>();
+        dataSpecs.add(dataSpec);
+        List<Entry> pending = new ArrayList<>();
+        pending.add(entry);
+        fetchAll(dataSpecs, pending);
+    }
+
+    /** Same spec as HlsChunkSource, so the cached spans line up */
+    private static DataSpec getSegmentDataSpec(HlsMediaPlaylist playlist,
+                                               HlsMediaPlaylist.Segment segment) {
+        return new DataSpec(UriUtil.resolveToUri(playlist.baseUri, segment.url),
+                segment.byterangeOffset, segment.byterangeLength, null);
+    }
+
+    private void fetchAll(List<DataSpec> dataSpecs, List<Entry> pending) {
+        for (int i = 0; i < dataSpecs.size(); i++) {
+            DataSpec dataSpec = dataSpecs.get(i);
+            try {
+                load(dataSpec, null);
+            } catch (IOException e) {
+                // Not fatal, the player will fetch it itself
+                Log.d(LOGTAG, "fetchAll(): failed for " + dataSpec.uri + ": " + e);
+            } finally {
+                complete(pending.get(i), null);
+            }
+        }
+    }
+
+    /** Reads dataSpec through the cache, into output if not null */
+    private void load(DataSpec dataSpec, ByteArrayOutputStream output) throws IOException {
+        try {
+            dataSource.open(dataSpec);
+            int read;
+            while ((read = dataSource.read(readBuffer, 0, readBuffer.length))
+                    != C.RESULT_END_OF_INPUT) {
+                if (output != null) {
+                    output.write(readBuffer, 0, read);
+                }
+            }
+        } finally {
+            dataSource.close();
+        }
+    }
+
+}
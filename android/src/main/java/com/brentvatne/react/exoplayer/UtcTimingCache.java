@@ -0,0 +1,176 @@
+package com.brentvatne.react.exoplayer;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer.dash.mpd.UtcTimingElement;
+import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver;
+import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver.UtcTimingCallback;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Remembers, per DASH UTCTiming source, how far the device clock is off the server's, so live
+ * streams can start without resolving the timing element first.
+ * <p/>
+ * {@link UtcTimingElementResolver} reports an offset to {@link SystemClock#elapsedRealtime()},
+ * which restarts with the device. What is stored is the offset to the wall clock instead, which
+ * holds across restarts for as long as nobody sets the clock. Entries are used for
+ * {@link #MAX_AGE_MS} and refreshed in the background once older than {@link #REFRESH_AGE_MS}.
+ * Only sources that need a network round trip are cached; direct timing is in the manifest.
+ */
+public final class UtcTimingCache {
+
+    private static final String LOGTAG = UtcTimingCache.class.getSimpleName();
+
+    private static final String FILE_NAME = "utc_timing_offsets.json";
+    private static final long MAX_AGE_MS = 6 * 60 * 60 * 1000;
+    private static final long REFRESH_AGE_MS = 10 * 60 * 1000;
+
+    private static final String FIELD_SKEW = "skewMs";
+    private static final String FIELD_RESOLVED_AT = "resolvedAtMs";
+
+    /** Entries by timing source, loaded on first use. Guarded by the class. */
+    private static JSONObject entries;
+    private static File file;
+
+    /** Writes the file off the caller's thread */
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private UtcTimingCache() {
+    }
+
+    /**
+     * Returns the elapsedRealtimeOffset for utcTiming as {@link UtcTimingElementResolver} would
+     * resolve it, or null if none is known or it is too old. Refreshes it in the background through
+     * dataSource if it is getting old.
+     *
+     * @param timingElementElapsedRealtime The timestamp the caller would resolve utcTiming
+     *     against, e.g. the load completion of the manifest, so refreshed offsets are comparable.
+     */
+    public static Long getElapsedRealtimeOffset(Context context, UriDataSource dataSource,
+                                                final UtcTimingElement utcTiming,
+                                                long timingElementElapsedRealtime) {
+        if (!isCacheable(utcTiming)) {
+            return null;
+        }
+        long skewMs;
+        long ageMs;
+        synchronized (UtcTimingCache.class) {
+            JSONObject entry = load(context).optJSONObject(getKey(utcTiming));
+            if (entry == null) {
+                return null;
+            }
+            skewMs = entry.optLong(FIELD_SKEW);
+            ageMs = System.currentTimeMillis() - entry.optLong(FIELD_RESOLVED_AT);
+        }
+        if (ageMs < 0 || ageMs > MAX_AGE_MS) {
+            // Expired, or the clock was set back since
+            return null;
+        }
+        if (ageMs > REFRESH_AGE_MS) {
+            final Context appContext = context.getApplicationContext();
+            UtcTimingElementResolver.resolveTimingElement(dataSource, utcTiming,
+                    timingElementElapsedRealtime, new UtcTimingCallback() {
+                        @Override
+                        public void onTimestampResolved(UtcTimingElement utcTiming,
+                                                        long elapsedRealtimeOffset) {
+                            put(appContext, utcTiming, elapsedRealtimeOffset);
+                        }
+
+                        @Override
+                        public void onTimestampError(UtcTimingElement utcTiming, IOException e) {
+                            Log.d(LOGTAG, "refresh failed for " + utcTiming + ": " + e);
+                        }
+                    });
+        }
+        return System.currentTimeMillis() + skewMs - SystemClock.elapsedRealtime();
+    }
+
+    /** Records the elapsedRealtimeOffset that utcTiming was just resolved to */
+    public static void put(Context context, UtcTimingElement utcTiming,
+                           long elapsedRealtimeOffset) {
+        if (!isCacheable(utcTiming)) {
+            return;
+        }
+        long nowMs = System.currentTimeMillis();
+        long skewMs = elapsedRealtimeOffset + SystemClock.elapsedRealtime() - nowMs;
+        synchronized (UtcTimingCache.class) {
+            JSONObject loaded = load(context);
+            try {
+                JSONObject entry = new JSONObject();
+                entry.put(FIELD_SKEW, skewMs);
+                entry.put(FIELD_RESOLVED_AT, nowMs);
+                loaded.put(getKey(utcTiming), entry);
+                removeExpired(loaded, nowMs);
+            } catch (JSONException e) {
+                Log.e(LOGTAG, "put(): failed for " + utcTiming, e);
+                return;
+            }
+            final String json = loaded.toString();
+            final File target = file;
+            // Queued under the lock so writes land in order
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        AtomicFiles.write(target, json);
+                    } catch (IOException e) {
+                        Log.e(LOGTAG, "put(): failed for " + target, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static boolean isCacheable(UtcTimingElement utcTiming) {
+        return utcTiming.schemeIdUri != null && utcTiming.schemeIdUri.contains(":http-");
+    }
+
+    private static String getKey(UtcTimingElement utcTiming) {
+        return utcTiming.schemeIdUri + ' ' + utcTiming.value;
+    }
+
+    /** Called with the class lock held */
+    private static JSONObject load(Context context) {
+        if (entries == null) {
+            file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+            entries = new JSONObject();
+            if (file.exists()) {
+                try {
+                    entries = new JSONObject(AtomicFiles.read(file));
+                } catch (IOException | JSONException e) {
+                    Log.w(LOGTAG, "load(): discarding unreadable " + file, e);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void removeExpired(JSONObject entries, long nowMs) {
+        List<String> expired = new ArrayList<>();
+        Iterator<String> keys = entries.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            JSONObject entry = entries.optJSONObject(key);
+            if (entry == null || nowMs - entry.optLong(FIELD_RESOLVED_AT) > MAX_AGE_MS) {
+                expired.add(key);
+            }
+        }
+        for (String key : expired) {
+            entries.remove(key);
+        }
+    }
+
+}